@@ -1,35 +1,77 @@
 package tla;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 class BindingGenerator implements Iterator<Environment>,
                                   Iterable<Environment> {
   private final List<Token> vars;
-  private final List<Object> set;
+  private final Iterator<?> tuples;
   private final Environment parent;
-  private int enumerationIndex = 0;
 
   BindingGenerator(List<Token> vars, Set<?> set, Environment parent) {
     this.vars = vars;
-    this.set = new ArrayList<>(set);
+    this.tuples = new TlaSet.Product(
+        Collections.nCopies(vars.size(), set)).iterator();
     this.parent = parent;
   }
 
+  // The bindings numbered from .. to - 1 in the order the generator over
+  // the same set yields them, so that ranges can be handed out separately.
+  BindingGenerator(List<Token> vars, List<Object> elements,
+                   long from, long to, Environment parent) {
+    this.vars = vars;
+    this.tuples = new Iterator<List<Object>>() {
+      private long index = from;
+
+      @Override
+      public boolean hasNext() {
+        return index < to;
+      }
+
+      @Override
+      public List<Object> next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        Object[] tuple = new Object[vars.size()];
+        long digits = index++;
+        for (int i = 0; i < tuple.length; i++) {
+          tuple[i] = elements.get((int)(digits % elements.size()));
+          digits /= elements.size();
+        }
+        return List.of(tuple);
+      }
+    };
+    this.parent = parent;
+  }
+
+  // How many bindings there are of vars variables to the set's elements,
+  // or Long.MAX_VALUE if there are more than that.
+  static long count(int vars, Set<?> set) {
+    long count = 1;
+    for (int i = 0; i < vars; i++) {
+      if (set.size() != 0 && count > Long.MAX_VALUE / set.size()) {
+        return Long.MAX_VALUE;
+      }
+      count *= set.size();
+    }
+
+    return count;
+  }
+
   @Override
   public boolean hasNext() {
-    return enumerationIndex < Math.pow(set.size(), vars.size());
+    return tuples.hasNext();
   }
 
   @Override
   public Environment next() {
-    int current = enumerationIndex++;
+    List<?> tuple = (List<?>)tuples.next();
     Environment bindings = new Environment(parent);
-    for (Token var : vars) {
-      bindings.define(var, set.get(current % set.size()));
-      current /= set.size();
+    for (int i = 0; i < vars.size(); i++) {
+      bindings.define(vars.get(i), tuple.get(i));
     }
 
     return bindings;
@@ -0,0 +1,107 @@
+package tla;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+class CommonSubexpressions implements Expr.Visitor<Boolean> {
+  private final Spec spec;
+  private final Map<Expr, Integer> occurrences = new IdentityHashMap<>();
+  private final Set<Expr> shared =
+      Collections.newSetFromMap(new IdentityHashMap<>());
+
+  CommonSubexpressions(Spec spec) {
+    this.spec = spec;
+  }
+
+  // The parser interns equal subtrees, so every occurrence of a repeated
+  // subexpression has the same canonical object.
+  void add(Expr expr) {
+    expr.accept(this);
+  }
+
+  boolean isShared(Expr expr) {
+    return shared.contains(expr.canonical);
+  }
+
+  private boolean count(Expr expr, boolean pure) {
+    if (pure && occurrences.merge(expr.canonical, 1, Integer::sum) == 2) {
+      shared.add(expr.canonical);
+    }
+
+    return pure;
+  }
+
+  private boolean addAll(List<Expr> exprs) {
+    boolean pure = true;
+    for (Expr expr : exprs) {
+      pure &= expr.accept(this);
+    }
+
+    return pure;
+  }
+
+  @Override
+  public Boolean visitBinaryExpr(Expr.Binary expr) {
+    boolean left = expr.left.accept(this);
+    boolean right = expr.right.accept(this);
+    return count(expr, left && right);
+  }
+
+  @Override
+  public Boolean visitQuantFnExpr(Expr.QuantFn expr) {
+    boolean set = expr.set.accept(this);
+    boolean body = expr.body.accept(this);
+    return count(expr, set && body);
+  }
+
+  @Override
+  public Boolean visitFnApplyExpr(Expr.FnApply expr) {
+    boolean fn = expr.fn.accept(this);
+    boolean argument = expr.argument.accept(this);
+    return count(expr, fn && argument);
+  }
+
+  @Override
+  public Boolean visitGroupingExpr(Expr.Grouping expr) {
+    return expr.expression.accept(this);
+  }
+
+  @Override
+  public Boolean visitLiteralExpr(Expr.Literal expr) {
+    return true;
+  }
+
+  @Override
+  public Boolean visitVariableExpr(Expr.Variable expr) {
+    boolean pure = addAll(expr.arguments);
+    if (!spec.globals.isDefined(expr.name)) return pure;
+    if (spec.globals.get(expr.name) instanceof TlaOperator op) {
+      return count(expr, pure && !op.isAction());
+    }
+
+    return pure;
+  }
+
+  @Override
+  public Boolean visitUnaryExpr(Expr.Unary expr) {
+    boolean pure = expr.expr.accept(this);
+    if (expr.operator.type == TokenType.PRIME) return false;
+    return count(expr, pure);
+  }
+
+  @Override
+  public Boolean visitTernaryExpr(Expr.Ternary expr) {
+    boolean first = expr.first.accept(this);
+    boolean second = expr.second.accept(this);
+    boolean third = expr.third.accept(this);
+    return count(expr, first && second && third);
+  }
+
+  @Override
+  public Boolean visitVariadicExpr(Expr.Variadic expr) {
+    return count(expr, addAll(expr.parameters));
+  }
+}
@@ -0,0 +1,115 @@
+package tla;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// How long each conjunct of one /\ takes and how often it is false, used to
+// try cheap, selective conjuncts first. Only runs of consecutive conjuncts
+// that cannot assign primed variables are reordered; everything else keeps
+// its place, so no conjunct moves past one whose assignments it could see.
+class ConjunctProfile {
+  // How many evaluations of the conjunction pass between reorderings.
+  private static final int REORDER_INTERVAL = 64;
+
+  private final boolean[] pure;
+  private boolean reorderable;
+  private final long[] nanos;
+  private final int[] evaluations;
+  private final int[] failures;
+  private final boolean allPure;
+  private int[] order;
+  private boolean sourceOrder = true;
+  private int calls = 0;
+
+  ConjunctProfile(boolean[] pure) {
+    this.pure = pure;
+    this.nanos = new long[pure.length];
+    this.evaluations = new int[pure.length];
+    this.failures = new int[pure.length];
+    int[] order = new int[pure.length];
+    boolean reorderable = false;
+    boolean allPure = true;
+    for (int i = 0; i < pure.length; i++) {
+      order[i] = i;
+      reorderable |= i > 0 && pure[i] && pure[i - 1];
+      allPure &= pure[i];
+    }
+
+    this.order = order;
+    this.reorderable = reorderable;
+    this.allPure = allPure;
+  }
+
+  // Whether any two adjacent conjuncts could ever swap places.
+  boolean isReorderable() {
+    return reorderable;
+  }
+
+  boolean isSourceOrder() {
+    return sourceOrder;
+  }
+
+  boolean isAllPure() {
+    return allPure;
+  }
+
+  // The indices of the conjuncts in the order to evaluate them. Reordering
+  // replaces the array rather than changing it, so an evaluation already
+  // walking it is unaffected.
+  int[] order() {
+    return order;
+  }
+
+  // Some conjunct depends on another being false first, so the source
+  // order is the only safe one from now on.
+  void keepSourceOrder() {
+    int[] order = new int[pure.length];
+    for (int i = 0; i < order.length; i++) order[i] = i;
+    this.order = order;
+    this.sourceOrder = true;
+    this.reorderable = false;
+  }
+
+  void record(int conjunct, long elapsed, boolean failed) {
+    nanos[conjunct] += elapsed;
+    evaluations[conjunct]++;
+    if (failed) failures[conjunct]++;
+  }
+
+  void completed() {
+    if (++calls % REORDER_INTERVAL == 0) reorder();
+  }
+
+  // Expected cost per rejection, smoothed so that conjuncts with few samples
+  // are neither favoured nor written off.
+  private double rank(int conjunct) {
+    double cost = (nanos[conjunct] + 1.0) / (evaluations[conjunct] + 1.0);
+    double failureRate = (failures[conjunct] + 1.0) / (evaluations[conjunct] + 2.0);
+    return cost / failureRate;
+  }
+
+  private void reorder() {
+    Comparator<Integer> byRank = Comparator.comparingDouble(this::rank);
+    int[] order = new int[pure.length];
+    boolean sourceOrder = true;
+    int start = 0;
+    while (start < order.length) {
+      int end = start + 1;
+      while (end < order.length && pure[start] && pure[end]) end++;
+
+      List<Integer> run = new ArrayList<>();
+      for (int i = start; i < end; i++) run.add(i);
+      run.sort(byRank);
+      for (int i = start; i < end; i++) {
+        order[i] = run.get(i - start);
+        sourceOrder &= order[i] == i;
+      }
+
+      start = end;
+    }
+
+    this.order = order;
+    this.sourceOrder = sourceOrder;
+  }
+}
@@ -1,12 +1,9 @@
 package tla;
 
-import java.util.HashMap;
-import java.util.Map;
-
 class Environment {
   final Environment enclosing;
   private final boolean allowRedefinition;
-  private final Map<String, Object> values = new HashMap<>();
+  private final SymbolMap<Object> values = new SymbolMap<>();
 
   Environment(boolean allowRedefinition) {
     enclosing = null;
@@ -19,21 +16,21 @@ class Environment {
   }
 
   void define(Token name, Object value) {
-    if (!allowRedefinition && values.containsKey(name.lexeme)) {
+    if (!allowRedefinition && values.containsKey(name.symbol)) {
       throw new RuntimeError(name, "Redefined definition '" + name.lexeme + "'.");
     }
 
-    values.put(name.lexeme, value);
+    values.put(name.symbol, value);
   }
 
   boolean isDefined(Token name) {
-    return values.containsKey(name.lexeme)
+    return values.containsKey(name.symbol)
         || (enclosing != null && enclosing.isDefined(name));
   }
 
   Object get(Token name) {
-    if (values.containsKey(name.lexeme)) {
-      return values.get(name.lexeme);
+    if (values.containsKey(name.symbol)) {
+      return values.get(name.symbol);
     }
 
     if (enclosing != null) return enclosing.get(name);
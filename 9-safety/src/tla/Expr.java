@@ -1,6 +1,7 @@
 package tla;
 
 import java.util.List;
+import java.util.Objects;
 
 abstract class Expr {
   interface Visitor<R> {
@@ -14,6 +15,12 @@ abstract class Expr {
     R visitTernaryExpr(Ternary expr);
     R visitVariadicExpr(Variadic expr);
   }
+
+  // The first occurrence of an equal expression, standing for all of them
+  // wherever values are shared. Each occurrence keeps its own tokens, so
+  // errors are reported where they happen.
+  Expr canonical = this;
+
   static class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right) {
       this.left = left;
@@ -26,9 +33,26 @@ abstract class Expr {
       return visitor.visitBinaryExpr(this);
     }
 
+    @Override
+    public boolean equals(Object object) {
+      if (this == object) return true;
+      if (!(object instanceof Binary other)) return false;
+      return hashCode() == other.hashCode()
+          && Objects.equals(left, other.left)
+          && Objects.equals(operator, other.operator)
+          && Objects.equals(right, other.right);
+    }
+
+    @Override
+    public int hashCode() {
+      if (hash == 0) hash = Objects.hash("Binary", left, operator, right);
+      return hash;
+    }
+
     final Expr left;
     final Token operator;
     final Expr right;
+    private int hash;
   }
   static class QuantFn extends Expr {
     QuantFn(Token op, List<Token> params, Expr set, Expr body) {
@@ -43,10 +67,28 @@ abstract class Expr {
       return visitor.visitQuantFnExpr(this);
     }
 
+    @Override
+    public boolean equals(Object object) {
+      if (this == object) return true;
+      if (!(object instanceof QuantFn other)) return false;
+      return hashCode() == other.hashCode()
+          && Objects.equals(op, other.op)
+          && Objects.equals(params, other.params)
+          && Objects.equals(set, other.set)
+          && Objects.equals(body, other.body);
+    }
+
+    @Override
+    public int hashCode() {
+      if (hash == 0) hash = Objects.hash("QuantFn", op, params, set, body);
+      return hash;
+    }
+
     final Token op;
     final List<Token> params;
     final Expr set;
     final Expr body;
+    private int hash;
   }
   static class FnApply extends Expr {
     FnApply(Expr fn, Token bracket, Expr argument) {
@@ -60,9 +102,26 @@ abstract class Expr {
       return visitor.visitFnApplyExpr(this);
     }
 
+    @Override
+    public boolean equals(Object object) {
+      if (this == object) return true;
+      if (!(object instanceof FnApply other)) return false;
+      return hashCode() == other.hashCode()
+          && Objects.equals(fn, other.fn)
+          && Objects.equals(bracket, other.bracket)
+          && Objects.equals(argument, other.argument);
+    }
+
+    @Override
+    public int hashCode() {
+      if (hash == 0) hash = Objects.hash("FnApply", fn, bracket, argument);
+      return hash;
+    }
+
     final Expr fn;
     final Token bracket;
     final Expr argument;
+    private int hash;
   }
   static class Grouping extends Expr {
     Grouping(Expr expression) {
@@ -74,7 +133,22 @@ abstract class Expr {
       return visitor.visitGroupingExpr(this);
     }
 
+    @Override
+    public boolean equals(Object object) {
+      if (this == object) return true;
+      if (!(object instanceof Grouping other)) return false;
+      return hashCode() == other.hashCode()
+          && Objects.equals(expression, other.expression);
+    }
+
+    @Override
+    public int hashCode() {
+      if (hash == 0) hash = Objects.hash("Grouping", expression);
+      return hash;
+    }
+
     final Expr expression;
+    private int hash;
   }
   static class Literal extends Expr {
     Literal(Object value) {
@@ -86,7 +160,22 @@ abstract class Expr {
       return visitor.visitLiteralExpr(this);
     }
 
+    @Override
+    public boolean equals(Object object) {
+      if (this == object) return true;
+      if (!(object instanceof Literal other)) return false;
+      return hashCode() == other.hashCode()
+          && Objects.equals(value, other.value);
+    }
+
+    @Override
+    public int hashCode() {
+      if (hash == 0) hash = Objects.hash("Literal", value);
+      return hash;
+    }
+
     final Object value;
+    private int hash;
   }
   static class Variable extends Expr {
     Variable(Token name, List<Expr> arguments) {
@@ -99,8 +188,24 @@ abstract class Expr {
       return visitor.visitVariableExpr(this);
     }
 
+    @Override
+    public boolean equals(Object object) {
+      if (this == object) return true;
+      if (!(object instanceof Variable other)) return false;
+      return hashCode() == other.hashCode()
+          && Objects.equals(name, other.name)
+          && Objects.equals(arguments, other.arguments);
+    }
+
+    @Override
+    public int hashCode() {
+      if (hash == 0) hash = Objects.hash("Variable", name, arguments);
+      return hash;
+    }
+
     final Token name;
     final List<Expr> arguments;
+    private int hash;
   }
   static class Unary extends Expr {
     Unary(Token operator, Expr expr) {
@@ -113,8 +218,24 @@ abstract class Expr {
       return visitor.visitUnaryExpr(this);
     }
 
+    @Override
+    public boolean equals(Object object) {
+      if (this == object) return true;
+      if (!(object instanceof Unary other)) return false;
+      return hashCode() == other.hashCode()
+          && Objects.equals(operator, other.operator)
+          && Objects.equals(expr, other.expr);
+    }
+
+    @Override
+    public int hashCode() {
+      if (hash == 0) hash = Objects.hash("Unary", operator, expr);
+      return hash;
+    }
+
     final Token operator;
     final Expr expr;
+    private int hash;
   }
   static class Ternary extends Expr {
     Ternary(Token operator, Expr first, Expr second, Expr third) {
@@ -129,10 +250,28 @@ abstract class Expr {
       return visitor.visitTernaryExpr(this);
     }
 
+    @Override
+    public boolean equals(Object object) {
+      if (this == object) return true;
+      if (!(object instanceof Ternary other)) return false;
+      return hashCode() == other.hashCode()
+          && Objects.equals(operator, other.operator)
+          && Objects.equals(first, other.first)
+          && Objects.equals(second, other.second)
+          && Objects.equals(third, other.third);
+    }
+
+    @Override
+    public int hashCode() {
+      if (hash == 0) hash = Objects.hash("Ternary", operator, first, second, third);
+      return hash;
+    }
+
     final Token operator;
     final Expr first;
     final Expr second;
     final Expr third;
+    private int hash;
   }
   static class Variadic extends Expr {
     Variadic(Token operator, List<Expr> parameters) {
@@ -145,8 +284,24 @@ abstract class Expr {
       return visitor.visitVariadicExpr(this);
     }
 
+    @Override
+    public boolean equals(Object object) {
+      if (this == object) return true;
+      if (!(object instanceof Variadic other)) return false;
+      return hashCode() == other.hashCode()
+          && Objects.equals(operator, other.operator)
+          && Objects.equals(parameters, other.parameters);
+    }
+
+    @Override
+    public int hashCode() {
+      if (hash == 0) hash = Objects.hash("Variadic", operator, parameters);
+      return hash;
+    }
+
     final Token operator;
     final List<Expr> parameters;
+    private int hash;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
@@ -0,0 +1,196 @@
+package tla;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+// Finds which state variables an expression reads and which it can assign,
+// following operator calls into their definitions. The sets over-approximate:
+// an action can only ever assign variables in its write set.
+class FrameAnalysis implements Expr.Visitor<Void> {
+
+  // Besides the variables, the names the expression leaves to its bindings:
+  // those it refers to without defining them, and which of those it primes.
+  // They can stand for operator arguments, whose frames are not known here.
+  record Frame(Set<String> reads, Set<String> writes, List<Token> names,
+               List<Token> primedNames) {
+    boolean writesAll(Set<String> variables) {
+      return writes.containsAll(variables);
+    }
+  }
+
+  // The arguments bound to an operator's parameters, analyzed in the scope
+  // of the caller whenever the body refers to the parameter.
+  // The caller's quantifier bindings are kept with it, since they do not
+  // reach into the operator's body.
+  private record Scope(SymbolMap<Expr> arguments, Scope caller,
+                       List<Integer> bound) { }
+
+  private final Spec spec;
+  private final Set<String> reads = new TreeSet<>();
+  private final Set<String> writes = new TreeSet<>();
+  private final List<Token> names = new ArrayList<>();
+  private final List<Token> primedNames = new ArrayList<>();
+  private final Set<TlaOperator> calling = new HashSet<>();
+  private Scope scope = null;
+  private List<Integer> bound = new ArrayList<>();
+  private boolean initial = false;
+  private boolean primed = false;
+  private boolean enabled = false;
+  private boolean primesArguments = false;
+
+  private FrameAnalysis(Spec spec) {
+    this.spec = spec;
+  }
+
+  // In an initial predicate every variable the predicate mentions can be
+  // assigned; in an action only primed variables can be.
+  static Frame analyze(Spec spec, Expr expr, boolean initial) {
+    FrameAnalysis analysis = new FrameAnalysis(spec);
+    analysis.initial = initial;
+    expr.accept(analysis);
+    return new Frame(Collections.unmodifiableSet(analysis.reads),
+                     Collections.unmodifiableSet(analysis.writes),
+                     Collections.unmodifiableList(analysis.names),
+                     Collections.unmodifiableList(analysis.primedNames));
+  }
+
+  // Whether some operator the expression calls primes one of its
+  // parameters, which primes the argument given for it.
+  static boolean primesArguments(Spec spec, Expr expr) {
+    FrameAnalysis analysis = new FrameAnalysis(spec);
+    expr.accept(analysis);
+    return analysis.primesArguments;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    expr.left.accept(this);
+    expr.right.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitQuantFnExpr(Expr.QuantFn expr) {
+    expr.set.accept(this);
+    for (Token param : expr.params) bound.add(param.symbol);
+    expr.body.accept(this);
+    bound.subList(bound.size() - expr.params.size(), bound.size()).clear();
+    return null;
+  }
+
+  @Override
+  public Void visitFnApplyExpr(Expr.FnApply expr) {
+    expr.fn.accept(this);
+    expr.argument.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    expr.expression.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    String name = expr.name.lexeme;
+    if (scope != null && scope.arguments.containsKey(expr.name.symbol)) {
+      primesArguments |= primed;
+      Scope callee = scope;
+      List<Integer> calleeBound = bound;
+      scope = callee.caller;
+      bound = callee.bound;
+      callee.arguments.get(expr.name.symbol).accept(this);
+      scope = callee;
+      bound = calleeBound;
+      return null;
+    }
+
+    if (spec.isStateVariable(expr.name)) {
+      if (!enabled && (initial || primed)) writes.add(name);
+      else if (!primed) reads.add(name);
+      return null;
+    }
+
+    // A quantifier cannot rebind a variable; evaluation rejects it.
+    if (bound.contains(expr.name.symbol)) return null;
+
+    if (!spec.globals.isDefined(expr.name)) {
+      names.add(expr.name);
+      if (primed) primedNames.add(expr.name);
+      analyzeAll(expr.arguments);
+      return null;
+    }
+
+    if (!(spec.globals.get(expr.name) instanceof TlaOperator op)) {
+      analyzeAll(expr.arguments);
+      return null;
+    }
+
+    // A recursive call could use its arguments anywhere, primed or not.
+    if (!calling.add(op)) {
+      boolean wasPrimed = primed;
+      analyzeAll(expr.arguments);
+      primed = true;
+      analyzeAll(expr.arguments);
+      primed = wasPrimed;
+      return null;
+    }
+
+    SymbolMap<Expr> arguments = new SymbolMap<>();
+    List<Token> params = op.declaration.params;
+    for (int i = 0; i < params.size() && i < expr.arguments.size(); i++) {
+      arguments.put(params.get(i).symbol, expr.arguments.get(i));
+    }
+
+    Scope caller = scope;
+    scope = new Scope(arguments, caller, bound);
+    bound = new ArrayList<>();
+    op.declaration.body.accept(this);
+    bound = scope.bound;
+    scope = caller;
+    calling.remove(op);
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    boolean wasPrimed = primed;
+    boolean wasEnabled = enabled;
+    if (expr.operator.type == TokenType.PRIME) primed = true;
+    if (expr.operator.type == TokenType.ENABLED) enabled = true;
+    expr.expr.accept(this);
+    primed = wasPrimed;
+    enabled = wasEnabled;
+    return null;
+  }
+
+  @Override
+  public Void visitTernaryExpr(Expr.Ternary expr) {
+    expr.first.accept(this);
+    expr.second.accept(this);
+    expr.third.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitVariadicExpr(Expr.Variadic expr) {
+    analyzeAll(expr.parameters);
+    return null;
+  }
+
+  private void analyzeAll(List<Expr> exprs) {
+    for (Expr expr : exprs) {
+      expr.accept(this);
+    }
+  }
+}
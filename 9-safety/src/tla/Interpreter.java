@@ -3,9 +3,18 @@ package tla;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 class Interpreter implements Expr.Visitor<Object>,
                              Stmt.Visitor<Void> {
@@ -17,18 +26,100 @@ class Interpreter implements Expr.Visitor<Object>,
     }
   }
 
+  // Successor branches are explored on the fork/join pool once there are
+  // this many of them.
+  static final int PARALLEL_THRESHOLD = 1 << 10;
+
+  // Quantifiers whose remaining bindings should take this long are decided
+  // on the fork/join pool, in shares of at least a quarter of it, once this
+  // many bindings have been timed.
+  private static final long PARALLEL_NANOS = 1_000_000;
+  private static final int COST_SAMPLE = 16;
+  private static final int SHARES_PER_WORKER = 16;
+
+  // How deeply evaluation nests on the thread that started it, and then on
+  // each of the threads it moves to, which have stacks of the given size.
+  // Past the last of those threads, recursion is taken to be unbounded. A
+  // default stack of 1 MiB overflows at about 1200 levels, so evaluation
+  // that starts on a deep stack gets the deep limit from the outset.
+  private static final int SHALLOW_DEPTH = 1 << 10;
+  private static final int DEEP_DEPTH = 1 << 16;
+  private static final long DEEP_STACK_SIZE = 1L << 28;
+  private static final int MAX_DEEP_STACKS = 16;
+
+  // Threads with deep stacks, kept once their evaluation ends so that the
+  // next one to nest past its limit need not start another.
+  private static final ExecutorService DEEP_STACKS =
+      Executors.newCachedThreadPool(task -> {
+        Thread thread = deepStackThread(task, "deep-evaluation");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  private static final class DeepStackThread extends Thread {
+    DeepStackThread(Runnable task, String name) {
+      super(null, task, name, DEEP_STACK_SIZE);
+    }
+  }
+
+  // A thread that evaluation can nest DEEP_DEPTH levels deep on.
+  static Thread deepStackThread(Runnable task, String name) {
+    return new DeepStackThread(task, name);
+  }
+
+  // How many evaluation steps a call folded at definition time may take.
+  private static final long FOLD_STEPS = 1 << 16;
+
+  private static final String OPERAND_ERROR = "Operand must be a number.";
+  private static final String OPERANDS_ERROR = "Operands must be numbers.";
+
+  final Spec spec;
   final Environment globals;
   private Environment environment;
+  private int depth = 0;
+  private int depthLimit =
+      Thread.currentThread() instanceof DeepStackThread
+      ? DEEP_DEPTH : SHALLOW_DEPTH;
+  private long steps = Long.MAX_VALUE;
 
-  private final Map<String, Token> variables = new HashMap<>();
   private Map<String, Object> current = null;
   private Map<String, Object> next = new HashMap<>();
   private Set<Map<String, Object>> possibleNext = new HashSet<>();
   private boolean primed = true;
+  // How many times a variable has been read from the next state.
+  private int nextReads = 0;
+
+  private final Map<Expr, Object> sharedValues = new IdentityHashMap<>();
+  private Environment sharedEnvironment = null;
+  private Map<String, Object> sharedState = null;
+  private final Map<Expr, Specializer> functionBodies = new IdentityHashMap<>();
+  private final Map<Expr, ConjunctProfile> conjunctProfiles =
+      new IdentityHashMap<>();
 
   public Interpreter(boolean replMode) {
-    this.globals = new Environment(replMode);
+    this(new Spec(replMode));
+  }
+
+  // A context for evaluating the spec with no current state. It has its
+  // own bindings, successor branches and caches, so each thread evaluating
+  // the same spec needs one of its own.
+  Interpreter(Spec spec) {
+    this.spec = spec;
+    this.globals = spec.globals;
     this.environment = this.globals;
+    clearNext();
+  }
+
+  // A context for evaluating in the same bindings and state on another
+  // thread, which may be inside an operator or quantifier.
+  Interpreter fork() {
+    Interpreter context = new Interpreter(spec);
+    context.environment = environment;
+    context.current = current;
+    context.next = new HashMap<>(next);
+    context.primed = primed;
+    context.steps = steps;
+    return context;
   }
 
   void interpret(List<Stmt> statements) {
@@ -42,30 +133,87 @@ class Interpreter implements Expr.Visitor<Object>,
   }
 
   private void execute(Stmt stmt) {
+    sharedValues.clear();
+    functionBodies.clear();
+    conjunctProfiles.clear();
+    spec.changed();
     stmt.accept(this);
   }
 
   List<Map<String, Object>> getNextStates(Token location, Expr action) {
-    Set<Map<String, Object>> confirmedNext = new HashSet<>();
     clearNext();
-    possibleNext.add(new HashMap<>(next));
     try {
-      while (!possibleNext.isEmpty()) {
-        Map<String, Object> trunk = possibleNext.iterator().next();
-        next = new HashMap<>(trunk);
-        Object satisfied = evaluate(action);
-        checkBooleanOperand(location, satisfied);
-        if ((boolean)satisfied && isComplete()) confirmedNext.add(next);
-        possibleNext.remove(trunk);
-      }
+      return new ArrayList<>(explore(location, action, List.of(new HashMap<>(next))));
     } finally {
       clearNext();
     }
+  }
+
+  // Evaluates the action from each trunk and from every branch it leads to,
+  // returning the complete next states found.
+  private Set<Map<String, Object>> explore(Token location, Expr action,
+                                           Collection<Map<String, Object>> trunks) {
+    Set<Map<String, Object>> confirmedNext = new HashSet<>();
+    possibleNext.addAll(trunks);
+    while (!possibleNext.isEmpty()) {
+      if (possibleNext.size() >= PARALLEL_THRESHOLD) {
+        confirmedNext.addAll(new Exploration(this, location, action,
+            new ArrayList<>(possibleNext)).invoke());
+        possibleNext.clear();
+        break;
+      }
+
+      Map<String, Object> trunk = possibleNext.iterator().next();
+      next = new HashMap<>(trunk);
+      Object satisfied = evaluate(action);
+      checkBooleanOperand(location, satisfied);
+      if ((boolean)satisfied && isComplete()) confirmedNext.add(next);
+      possibleNext.remove(trunk);
+    }
+
+    return confirmedNext;
+  }
+
+  // Explores a share of the trunks in a context of its own, splitting the
+  // share in half until it is small enough.
+  private static final class Exploration
+      extends RecursiveTask<Set<Map<String, Object>>> {
+    // Tasks are never serialized, so neither are their fields.
+    private static final long serialVersionUID = 1L;
+
+    private final transient Interpreter parent;
+    private final transient Token location;
+    private final transient Expr action;
+    private final transient List<Map<String, Object>> trunks;
+
+    Exploration(Interpreter parent, Token location, Expr action,
+                List<Map<String, Object>> trunks) {
+      this.parent = parent;
+      this.location = location;
+      this.action = action;
+      this.trunks = trunks;
+    }
+
+    @Override
+    protected Set<Map<String, Object>> compute() {
+      int size = trunks.size();
+      if (size <= PARALLEL_THRESHOLD / 4) {
+        return parent.fork().explore(location, action, trunks);
+      }
 
-    return new ArrayList<>(confirmedNext);
+      Exploration left = new Exploration(parent, location, action,
+          trunks.subList(0, size / 2));
+      Exploration right = new Exploration(parent, location, action,
+          trunks.subList(size / 2, size));
+      left.fork();
+      Set<Map<String, Object>> confirmed = right.compute();
+      confirmed.addAll(left.join());
+      return confirmed;
+    }
   }
 
   void goToState(Map<String, Object> state) {
+    sharedValues.clear();
     current = state;
     primed = state == null;
     clearNext();
@@ -81,46 +229,164 @@ class Interpreter implements Expr.Visitor<Object>,
     }
   }
 
+  Set<String> getVariables() {
+    return spec.getVariables();
+  }
+
+  boolean isStateVariable(Token name) {
+    return spec.isStateVariable(name);
+  }
+
   private boolean isComplete() {
-    return !variables.isEmpty() && next.values().stream()
+    return !spec.getVariables().isEmpty() && next.values().stream()
         .noneMatch(v -> v instanceof UnboundVariable);
   }
 
   private void clearNext() {
     possibleNext = new HashSet<>();
     next = new HashMap<>();
-    for (Token variable : variables.values()) {
+    for (Token variable : spec.getVariableNames()) {
       next.put(variable.lexeme, new UnboundVariable(variable));
     }
   }
 
   private Object evaluate(Expr expr) {
-    return expr.accept(this);
+    if (--steps < 0) throw new OutOfSteps();
+    if (depth == depthLimit) return evaluateOnNewStack(expr);
+    depth++;
+    try {
+      return evaluateShared(expr);
+    } finally {
+      depth--;
+    }
+  }
+
+  // Carries on evaluating on a pooled thread with a deep stack, while this
+  // thread waits, so nesting is limited by memory rather than by the size
+  // of any one thread's stack.
+  private Object evaluateOnNewStack(Expr expr) {
+    if (depth >= SHALLOW_DEPTH + MAX_DEEP_STACKS * DEEP_DEPTH) {
+      // Only a literal, which nests no further, has no location.
+      Token location = location(expr);
+      if (location == null) return expr.accept(this);
+      throw new RuntimeError(location, "Recursion too deep.");
+    }
+
+    int limit = depthLimit;
+    depthLimit = depth + DEEP_DEPTH;
+    try {
+      Future<Object> deeper = DEEP_STACKS.submit(() -> evaluate(expr));
+      boolean interrupted = false;
+      try {
+        while (true) {
+          try {
+            return deeper.get();
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException error) throw error;
+        if (e.getCause() instanceof Error error) throw error;
+        throw new IllegalStateException(e.getCause());
+      } finally {
+        if (interrupted) Thread.currentThread().interrupt();
+      }
+    } finally {
+      depthLimit = limit;
+    }
+  }
+
+  // The token to report an error in the expression at.
+  private static Token location(Expr expr) {
+    if (expr instanceof Expr.Binary binary) return binary.operator;
+    if (expr instanceof Expr.QuantFn quantFn) return quantFn.op;
+    if (expr instanceof Expr.FnApply fnApply) return fnApply.bracket;
+    if (expr instanceof Expr.Grouping grouping) return location(grouping.expression);
+    if (expr instanceof Expr.Variable variable) return variable.name;
+    if (expr instanceof Expr.Unary unary) return unary.operator;
+    if (expr instanceof Expr.Ternary ternary) return ternary.operator;
+    if (expr instanceof Expr.Variadic variadic) return variadic.operator;
+    return null;
+  }
+
+  private Object evaluateShared(Expr expr) {
+    if (primed || !spec.subexpressions.isShared(expr)) return expr.accept(this);
+
+    // Pure subexpressions depend only on the environment & current state,
+    // unless a parameter stands for an argument that reads the next state.
+    validateSharedValues();
+    Object value = sharedValues.get(expr.canonical);
+    if (value == null) {
+      int previousReads = nextReads;
+      value = expr.accept(this);
+      validateSharedValues();
+      if (nextReads == previousReads) sharedValues.put(expr.canonical, value);
+    }
+
+    return value;
+  }
+
+  private void validateSharedValues() {
+    if (sharedEnvironment != environment || sharedState != current) {
+      sharedValues.clear();
+      sharedEnvironment = environment;
+      sharedState = current;
+    }
   }
 
   @Override
   public Void visitOpDefStmt(Stmt.OpDef stmt) {
     checkNotDefined(stmt.params);
     for (Token param : stmt.params) {
-      if (param.lexeme.equals(stmt.name.lexeme)) {
+      if (param.symbol == stmt.name.symbol) {
         throw new RuntimeError(param, "Identifier already in use.");
       }
     }
 
-    if (variables.containsKey(stmt.name.lexeme)) {
+    if (spec.isStateVariable(stmt.name)) {
       throw new RuntimeError(stmt.name, "State variable redeclared as operator.");
     }
 
-    TlaOperator op = new TlaOperator(stmt);
+    spec.subexpressions.add(stmt.body);
+
+    // Definitions can change in the REPL, so only fold calls in files.
+    Specializer specializer =
+        new Specializer(this, stmt.name, stmt.params, !spec.replMode);
+    Expr body = specializer.specialize(stmt.body);
+    Stmt.OpDef declaration =
+      body == stmt.body ? stmt : new Stmt.OpDef(stmt.name, stmt.params, body);
+    TlaOperator op = new TlaOperator(declaration, specializer.isConstant(),
+        specializer.isAction(), specializer.isRecursive());
     environment.define(stmt.name, op);
     return null;
   }
 
+  // Evaluates a call while defining an operator, giving up with OutOfSteps
+  // if it has not finished within FOLD_STEPS steps; it might never finish.
+  Object fold(TlaCallable operator, List<Object> arguments) {
+    long previous = steps;
+    steps = FOLD_STEPS;
+    try {
+      return operator.call(this, arguments);
+    } finally {
+      steps = previous;
+    }
+  }
+
+  private static final class OutOfSteps extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    OutOfSteps() {
+      super("Out of evaluation steps.", null, false, false);
+    }
+  }
+
   @Override
   public Void visitVarDeclStmt(Stmt.VarDecl stmt) {
     checkNotDefined(stmt.names);
     for (Token name : stmt.names) {
-      variables.put(name.lexeme, name);
+      spec.declare(name);
       next.put(name.lexeme, new UnboundVariable(name));
     }
 
@@ -136,20 +402,23 @@ class Interpreter implements Expr.Visitor<Object>,
 
   @Override
   public Object visitBinaryExpr(Expr.Binary expr) {
+    switch (expr.operator.type) {
+      case DOT_DOT:
+        return new TlaSet.Interval(evaluateInt(expr.left, expr.operator),
+                                   evaluateInt(expr.right, expr.operator));
+      case MINUS:
+      case PLUS:
+        return arithmetic(expr, expr.operator, OPERANDS_ERROR);
+      case LESS_THAN:
+        return evaluateInt(expr.left, expr.operator)
+            < evaluateInt(expr.right, expr.operator);
+      default:
+        break;
+    }
+
     Object left = evaluate(expr.left);
     Object right = evaluate(expr.right);
     switch (expr.operator.type) {
-      case DOT_DOT:
-        checkNumberOperands(expr.operator, left, right);
-        Set<Object> set = new HashSet<Object>();
-        int lower = (int)left;
-        int higher = (int)right;
-        if (lower <= higher) {
-          for (int i = lower; i <= higher; i++) {
-            set.add(i);
-          }
-        }
-        return set;
       case IN:
         checkSetOperand(expr.operator, right);
         if (left instanceof UnboundVariable var) {
@@ -163,15 +432,6 @@ class Interpreter implements Expr.Visitor<Object>,
           return true;
         }
         return ((Set<?>)right).contains(left);
-      case MINUS:
-        checkNumberOperands(expr.operator, left, right);
-        return (int)left - (int)right;
-      case PLUS:
-        checkNumberOperands(expr.operator, left, right);
-        return (int)left + (int)right;
-      case LESS_THAN:
-        checkNumberOperands(expr.operator, left, right);
-        return (int)left < (int)right;
       case EQUAL:
         if (left instanceof UnboundVariable var) {
           checkIsValue(right);
@@ -186,6 +446,71 @@ class Interpreter implements Expr.Visitor<Object>,
     }
   }
 
+  private int evaluateInt(Expr expr, Token operator) {
+    return evaluateInt(expr, operator, OPERANDS_ERROR);
+  }
+
+  // Sums, differences and negations nested in an integer expression are
+  // worked out on ints, so that only the final value is boxed. Shared
+  // subexpressions still go through their cache.
+  private int evaluateInt(Expr expr, Token operator, String error) {
+    if (expr instanceof Expr.Literal literal
+        && literal.value instanceof Integer value) {
+      return value;
+    }
+
+    if (!isArithmetic(expr) || depth == depthLimit
+        || !primed && spec.subexpressions.isShared(expr)) {
+      Object value = evaluate(expr);
+      if (value instanceof Integer i) return i;
+      throw new RuntimeError(operator, error);
+    }
+
+    depth++;
+    try {
+      return arithmetic(expr, operator, error);
+    } finally {
+      depth--;
+    }
+  }
+
+  private static boolean isArithmetic(Expr expr) {
+    if (expr instanceof Expr.Grouping) return true;
+    if (expr instanceof Expr.Unary unary) {
+      return unary.operator.type == TokenType.MINUS;
+    }
+
+    return expr instanceof Expr.Binary binary
+        && (binary.operator.type == TokenType.PLUS
+            || binary.operator.type == TokenType.MINUS);
+  }
+
+  // Overflow is an error rather than wrapping around.
+  private int arithmetic(Expr expr, Token operator, String error) {
+    if (expr instanceof Expr.Grouping grouping) {
+      return evaluateInt(grouping.expression, operator, error);
+    }
+
+    if (expr instanceof Expr.Unary negation) {
+      int operand = evaluateInt(negation.expr, negation.operator, OPERAND_ERROR);
+      try {
+        return Math.negateExact(operand);
+      } catch (ArithmeticException e) {
+        throw new RuntimeError(negation.operator, "Integer overflow.");
+      }
+    }
+
+    Expr.Binary binary = (Expr.Binary)expr;
+    int left = evaluateInt(binary.left, binary.operator);
+    int right = evaluateInt(binary.right, binary.operator);
+    try {
+      return binary.operator.type == TokenType.PLUS
+          ? Math.addExact(left, right) : Math.subtractExact(left, right);
+    } catch (ArithmeticException e) {
+      throw new RuntimeError(binary.operator, "Integer overflow.");
+    }
+  }
+
   @Override
   public Object visitGroupingExpr(Expr.Grouping expr) {
     return evaluate(expr.expression);
@@ -204,15 +529,30 @@ class Interpreter implements Expr.Visitor<Object>,
     BindingGenerator bindings = new BindingGenerator(expr.params, (Set<?>)set, environment);
     switch (expr.op.type) {
       case ALL_MAP_TO: {
+        if (isConstant(expr)) {
+          return new TlaFunction.Lazy(this, expr, (Set<?>)set, environment);
+        }
+
         Token param = expr.params.get(0);
+        if (set instanceof TlaSet.Interval interval) {
+          Object[] values = new Object[interval.size()];
+          for (Environment binding : bindings) {
+            Object value = executeBlock(expr.body, binding);
+            checkIsValue(value);
+            values[(int)binding.get(param) - interval.lower] = value;
+          }
+          return new TlaFunction.Indexed(interval.lower, values);
+        }
+
         Map<Object, Object> function = new HashMap<>();
         for (Environment binding : bindings) {
           Object value = executeBlock(expr.body, binding);
           checkIsValue(value);
           function.put(binding.get(param), value);
         }
-        return function;
+        return new TlaFunction.Enumerated(function);
       } case FOR_ALL: {
+        if (hasNoEffects(expr)) return quantify(expr, (Set<?>)set, bindings);
         for (Environment binding : bindings) {
           Object result = executeBlock(expr.body, binding);
           checkBooleanOperand(expr.op, result);
@@ -220,6 +560,8 @@ class Interpreter implements Expr.Visitor<Object>,
         }
         return true;
       } case EXISTS: {
+        // Every branch of a body that assigns nothing is the trunk itself.
+        if (hasNoEffects(expr)) return quantify(expr, (Set<?>)set, bindings);
         boolean result = false;
         Map<String, Object> trunk = next;
         for (Environment binding : bindings) {
@@ -237,28 +579,169 @@ class Interpreter implements Expr.Visitor<Object>,
     }
   }
 
+  // Decides \A or \E, stopping at the first binding that settles it. The
+  // first bindings are timed, and if the rest would take long enough they
+  // are split into ranges for the fork/join pool.
+  private boolean quantify(Expr.QuantFn expr, Set<?> set,
+                           BindingGenerator bindings) {
+    boolean settling = expr.op.type == TokenType.EXISTS;
+    long count = BindingGenerator.count(expr.params.size(), set);
+    long start = System.nanoTime();
+    for (long index = 0; bindings.hasNext(); index++) {
+      if (index == COST_SAMPLE) {
+        long cost = Math.max(1, (System.nanoTime() - start) / index);
+        if (count - index >= PARALLEL_NANOS / cost) {
+          // The first bindings include warming up, so the estimate runs
+          // high; keep shares few enough that forking them stays cheap,
+          // and never below one binding, which could not be split.
+          long grain = Math.max(1, Math.max(PARALLEL_NANOS / 4 / cost,
+              (count - index) / (SHARES_PER_WORKER
+                  * ForkJoinPool.getCommonPoolParallelism())));
+          Quantification.Settled settled = new Quantification(this, expr,
+              environment, new ArrayList<>(set), index, count, grain,
+              new AtomicLong(count)).invoke();
+          if (settled == null) return !settling;
+          if (settled.error() != null) throw settled.error();
+          return settling;
+        }
+      }
+
+      Object result = executeBlock(expr.body, bindings.next());
+      checkBooleanOperand(expr.op, result);
+      if ((Boolean)result == settling) return settling;
+    }
+
+    return !settling;
+  }
+
+  // Evaluates a range of a quantifier's bindings in a context of its own,
+  // splitting the range in half until it is small enough. Every task stops
+  // once an earlier binding has settled the quantifier, and the earliest
+  // binding that settles it or fails decides the outcome, just as it would
+  // sequentially.
+  private static final class Quantification
+      extends RecursiveTask<Quantification.Settled> {
+    // The binding that settled the quantifier, and the error it raised.
+    record Settled(long index, RuntimeError error) { }
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient Interpreter parent;
+    private final transient Expr.QuantFn expr;
+    private final transient Environment closure;
+    private final transient List<Object> elements;
+    private final long from;
+    private final long to;
+    private final long grain;
+    private final AtomicLong earliest;
+
+    Quantification(Interpreter parent, Expr.QuantFn expr, Environment closure,
+                   List<Object> elements, long from, long to, long grain,
+                   AtomicLong earliest) {
+      this.parent = parent;
+      this.expr = expr;
+      this.closure = closure;
+      this.elements = elements;
+      this.from = from;
+      this.to = to;
+      this.grain = grain;
+      this.earliest = earliest;
+    }
+
+    @Override
+    protected Settled compute() {
+      if (from >= earliest.get()) return null;
+      if (to - from <= grain) return evaluate();
+
+      long middle = from + (to - from) / 2;
+      Quantification left = new Quantification(parent, expr, closure,
+          elements, from, middle, grain, earliest);
+      Quantification right = new Quantification(parent, expr, closure,
+          elements, middle, to, grain, earliest);
+      left.fork();
+      Settled later = right.compute();
+      Settled settled = left.join();
+      return settled != null ? settled : later;
+    }
+
+    private Settled evaluate() {
+      Interpreter context = parent.fork();
+      boolean settling = expr.op.type == TokenType.EXISTS;
+      BindingGenerator bindings = new BindingGenerator(expr.params, elements,
+          from, to, closure);
+      for (long index = from; index < to && index < earliest.get(); index++) {
+        try {
+          Object result = context.executeBlock(expr.body, bindings.next());
+          context.checkBooleanOperand(expr.op, result);
+          if ((Boolean)result != settling) continue;
+          earliest.accumulateAndGet(index, Math::min);
+          return new Settled(index, null);
+        } catch (RuntimeError error) {
+          earliest.accumulateAndGet(index, Math::min);
+          return new Settled(index, error);
+        }
+      }
+
+      return null;
+    }
+  }
+
+  Object apply(Expr.QuantFn function, Environment closure, Object argument) {
+    Environment binding = new Environment(closure);
+    binding.define(function.params.get(0), argument);
+    Object value = executeBlock(function.body, binding);
+    checkIsValue(value);
+    return value;
+  }
+
+  // Constant function bodies give the same value whenever they are
+  // evaluated for the same argument, as long as the names they leave free
+  // are bound to values.
+  private boolean isConstant(Expr.QuantFn function) {
+    Specializer analysis = functionBodies.computeIfAbsent(function, e -> {
+      Specializer body = new Specializer(this, null, function.params, false);
+      body.specialize(function.body);
+      return body;
+    });
+    if (!analysis.isConstantGivenFreeNames()) return false;
+
+    // An argument not yet evaluated could still read the next state.
+    for (Token name : analysis.freeNames()) {
+      if (!environment.isDefined(name)
+          || environment.get(name) instanceof Thunk) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
   @Override
   public Object visitFnApplyExpr(Expr.FnApply expr) {
     Object callee = evaluate(expr.fn);
     checkFunctionOperand(expr.bracket, callee);
     Object argument = evaluate(expr.argument);
     checkIsValue(argument);
-    Map<?, ?> function = (Map<?, ?>)callee;
-    if (!function.containsKey(argument)) {
+    Object value = ((Map<?, ?>)callee).get(argument);
+    if (value == null) {
       throw new RuntimeError(expr.bracket,
           "Cannot apply function to element outside domain: "
           + argument.toString());
     }
 
-    return function.get(argument);
+    return value;
   }
 
   @Override
   public Object visitVariableExpr(Expr.Variable expr) {
-    Object callee =
-      variables.containsKey(expr.name.lexeme)
-      ? (primed ? next : current).get(expr.name.lexeme)
-      : environment.get(expr.name);
+    Object callee;
+    if (spec.isStateVariable(expr.name)) {
+      if (primed) nextReads++;
+      callee = (primed ? next : current).get(expr.name.lexeme);
+    } else {
+      callee = environment.get(expr.name);
+      if (callee instanceof Thunk thunk) callee = force(thunk);
+    }
 
     if (!(callee instanceof TlaCallable)) {
       if (!expr.arguments.isEmpty()) {
@@ -269,21 +752,82 @@ class Interpreter implements Expr.Visitor<Object>,
       return callee;
     }
 
-    List<Object> arguments = new ArrayList<>();
-    for (Expr argument : expr.arguments) {
-      arguments.add(evaluate(argument));
-    }
-
     TlaCallable operator = (TlaCallable)callee;
-    if (arguments.size() != operator.arity()) {
+    if (expr.arguments.size() != operator.arity()) {
       throw new RuntimeError(expr.name, "Expected " +
           operator.arity() + " arguments but got " +
-          arguments.size() + ".");
+          expr.arguments.size() + ".");
+    }
+
+    List<Object> arguments = new ArrayList<>();
+    for (Expr argument : expr.arguments) {
+      arguments.add(delay(argument, environment));
     }
 
     return operator.call(this, arguments);
   }
 
+  // An operator argument, evaluated in the caller's environment and state
+  // only when the operator uses it. Priming the parameter primes the
+  // argument, and so does calling the operator from a primed context.
+  private static final class Thunk {
+    private final Expr argument;
+    private final Environment environment;
+    private final Map<String, Object> state;
+    private final boolean primed;
+    // The values forced unprimed and primed, which differ once the
+    // argument mentions a variable.
+    private volatile Object value = null;
+    private volatile Object primedValue = null;
+
+    Thunk(Expr argument, Environment environment,
+          Map<String, Object> state, boolean primed) {
+      this.argument = argument;
+      this.environment = environment;
+      this.state = state;
+      this.primed = primed;
+    }
+  }
+
+  // The argument as the operator's parameter should see it.
+  Object delay(Expr argument, Environment environment) {
+    if (argument instanceof Expr.Literal literal) return literal.value;
+    return new Thunk(argument, environment, current, primed);
+  }
+
+  // The value of an operator argument, evaluating it if need be.
+  Object force(Object argument) {
+    return argument instanceof Thunk thunk ? force(thunk) : argument;
+  }
+
+  // A thunk's value is kept only if nothing was read from the next state,
+  // which can change as variables are assigned.
+  private Object force(Thunk thunk) {
+    boolean forcedPrimed = primed || thunk.primed;
+    Object value = forcedPrimed ? thunk.primedValue : thunk.value;
+    if (value != null) return value;
+
+    Environment previousEnvironment = environment;
+    Map<String, Object> previousState = current;
+    boolean wasPrimed = primed;
+    int previousReads = nextReads;
+    try {
+      environment = thunk.environment;
+      current = thunk.state;
+      primed = forcedPrimed;
+      value = evaluate(thunk.argument);
+      if (nextReads == previousReads) {
+        if (forcedPrimed) thunk.primedValue = value;
+        else thunk.value = value;
+      }
+      return value;
+    } finally {
+      environment = previousEnvironment;
+      current = previousState;
+      primed = wasPrimed;
+    }
+  }
+
   @Override
   public Object visitUnaryExpr(Expr.Unary expr) {
     switch (expr.operator.type) {
@@ -314,9 +858,7 @@ class Interpreter implements Expr.Visitor<Object>,
         checkBooleanOperand(expr.operator, operand);
         return !(boolean)operand;
       } case MINUS: {
-        Object operand = evaluate(expr.expr);
-        checkNumberOperand(expr.operator, operand);
-        return -(int)operand;
+        return arithmetic(expr, expr.operator, OPERAND_ERROR);
       } default: {
         // Unreachable.
         return null;
@@ -342,20 +884,21 @@ class Interpreter implements Expr.Visitor<Object>,
   public Object visitVariadicExpr(Expr.Variadic expr) {
     switch (expr.operator.type) {
       case LEFT_BRACE:
-        Set<Object> set = new HashSet<Object>();
+        List<Object> elements = new ArrayList<>();
         for (Expr parameter : expr.parameters) {
           Object value = evaluate(parameter);
           checkIsValue(value);
-          set.add(value);
+          elements.add(value);
         }
-        return set;
+        return TlaSet.of(elements);
       case AND:
-        for (Expr conjunct : expr.parameters) {
-          Object result = evaluate(conjunct);
-          checkBooleanOperand(expr.operator, result);
-          if (!(boolean)result) return false;
+        // Unprimed variables are assignments when there is no current
+        // state, so conjuncts keep their order then.
+        ConjunctProfile profile = primed ? null : conjunctProfile(expr);
+        if (profile == null || !profile.isReorderable()) {
+          return evaluateConjuncts(expr);
         }
-        return true;
+        return evaluateConjuncts(expr, profile);
       case OR:
         boolean result = false;
         Map<String, Object> trunk = next;
@@ -373,6 +916,107 @@ class Interpreter implements Expr.Visitor<Object>,
     }
   }
 
+  private boolean evaluateConjuncts(Expr.Variadic expr) {
+    for (Expr conjunct : expr.parameters) {
+      Object result = evaluate(conjunct);
+      checkBooleanOperand(expr.operator, result);
+      if (!(boolean)result) return false;
+    }
+
+    return true;
+  }
+
+  // Evaluates the conjuncts in the profile's order. Pure conjuncts moved
+  // ahead of a false one might fail where they would not have been
+  // evaluated at all, so an error sends evaluation back to source order.
+  private boolean evaluateConjuncts(Expr.Variadic expr,
+                                    ConjunctProfile profile) {
+    boolean sourceOrder = profile.isSourceOrder();
+    boolean restore = !sourceOrder && !profile.isAllPure();
+    Map<String, Object> trunk = restore ? new HashMap<>(next) : null;
+    Set<Map<String, Object>> branches =
+        restore ? new HashSet<>(possibleNext) : null;
+    try {
+      for (int conjunct : profile.order()) {
+        long start = System.nanoTime();
+        Object result = evaluate(expr.parameters.get(conjunct));
+        checkBooleanOperand(expr.operator, result);
+        boolean holds = (boolean)result;
+        profile.record(conjunct, System.nanoTime() - start, !holds);
+        if (!holds) return false;
+      }
+
+      return true;
+    } catch (RuntimeError error) {
+      if (sourceOrder) throw error;
+      profile.keepSourceOrder();
+      if (restore) {
+        next = trunk;
+        possibleNext = branches;
+      }
+      return evaluateConjuncts(expr);
+    } finally {
+      profile.completed();
+    }
+  }
+
+  // Whether evaluating the quantifier's body leaves the successor state
+  // alone: in an action it assigns no primed variable, and with no current
+  // state it mentions no variable at all.
+  private boolean hasNoEffects(Expr.QuantFn expr) {
+    return hasNoEffects(expr.body, expr.params, environment, primed);
+  }
+
+  // Parameters bound to arguments not yet evaluated are checked in turn, in
+  // the caller's bindings and primed wherever they will be forced primed.
+  private boolean hasNoEffects(Expr expr, List<Token> params,
+                               Environment environment, boolean primed) {
+    FrameAnalysis.Frame frame = spec.frame(expr);
+    if (!frame.writes().isEmpty() || primed && !frame.reads().isEmpty()) {
+      return false;
+    }
+
+    for (Token name : frame.names()) {
+      if (isParam(name, params) || !environment.isDefined(name)
+          || !(environment.get(name) instanceof Thunk thunk)) {
+        continue;
+      }
+
+      boolean forcedPrimed = primed || thunk.primed
+          || frame.primedNames().contains(name);
+      if (!hasNoEffects(thunk.argument, List.of(), thunk.environment,
+                        forcedPrimed)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static boolean isParam(Token name, List<Token> params) {
+    for (Token param : params) {
+      if (param.symbol == name.symbol) return true;
+    }
+
+    return false;
+  }
+
+  // The profile of a conjunction, or null if it has not been evaluated
+  // with a current state.
+  ConjunctProfile getConjunctProfile(Expr.Variadic expr) {
+    return conjunctProfiles.get(expr);
+  }
+
+  private ConjunctProfile conjunctProfile(Expr.Variadic expr) {
+    return conjunctProfiles.computeIfAbsent(expr, e -> {
+      boolean[] pure = new boolean[expr.parameters.size()];
+      for (int i = 0; i < pure.length; i++) {
+        pure[i] = spec.frame(expr.parameters.get(i)).writes().isEmpty();
+      }
+      return new ConjunctProfile(pure);
+    });
+  }
+
   private String stringify(Object object) {
     return object.toString();
   }
@@ -386,37 +1030,29 @@ class Interpreter implements Expr.Visitor<Object>,
   }
 
   private void checkNotDefined(List<Token> names) {
+    checkNotDefined(names, environment);
+  }
+
+  void checkNotDefined(List<Token> names, Environment environment) {
     for (Token name : names) {
       if (environment.isDefined(name)) {
         throw new RuntimeError(name, "Identifier already in use.");
       }
 
-      if (variables.containsKey(name.lexeme)) {
+      if (spec.isStateVariable(name)) {
         throw new RuntimeError(name, "Name conflicts with state variable.");
       }
     }
 
     for (int i = 0; i < names.size() - 1; i++) {
       for (int j = i + 1; j < names.size(); j++) {
-        if (names.get(i).lexeme.equals(names.get(j).lexeme)) {
+        if (names.get(i).symbol == names.get(j).symbol) {
           throw new RuntimeError(names.get(i), "Identifier used twice in same list.");
         }
       }
     }
   }
 
-  private void checkNumberOperand(Token operator, Object operand) {
-    if (operand instanceof Integer) return;
-    throw new RuntimeError(operator, "Operand must be a number.");
-  }
-
-  private void checkNumberOperands(Token operator,
-      Object left, Object right) {
-    if (left instanceof Integer && right instanceof Integer) return;
-
-    throw new RuntimeError(operator, "Operands must be numbers.");
-  }
-
   private void checkBooleanOperand(Token operator, Object operand) {
     if (operand instanceof Boolean) return;
     throw new RuntimeError(operator, "Operand must be a boolean.");
@@ -2,10 +2,14 @@ package tla;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 class ModelChecker {
 
@@ -13,15 +17,70 @@ class ModelChecker {
 
   record StateTrace(String failingInvariant, List<Step> trace) { }
 
+  // A state as the ids of its variables' values, in the order of names.
+  // The fingerprint is a sum of one term per variable, so a successor's
+  // fingerprint follows from its predecessor's by replacing the terms of
+  // the variables that changed.
+  record State(int[] values, long fingerprint) {
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof State state
+          && fingerprint == state.fingerprint
+          && Arrays.equals(values, state.values);
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(fingerprint);
+    }
+  }
+
+  // A disjunct of Next. Its successors depend only on the variables it
+  // reads, so when it reads fewer than all of them they are cached by the
+  // projection of the state onto those variables. A conjunct x' = x does
+  // not count as reading x; its slot is cached as UNCHANGED instead.
+  // Disjuncts of the right shape are compiled into a successor template;
+  // the rest are left to the interpreter.
+  private record SubAction(Expr body, SuccessorTemplate template, int[] reads,
+                           int[] unchanged, Map<State, List<int[]>> cache) { }
+
+  private static final int UNCHANGED = -1;
+
+  // An invariant. When it reads fewer than all the variables, its result
+  // is cached by the projection of the state onto the ones it reads.
+  private record Invariant(Stmt.OpDef op, int[] reads, Map<State, Boolean> cache) { }
+
+  // Bounds each sub-action's and invariant's cache.
+  private static final int MAX_CACHED_PROJECTIONS = 1 << 16;
+
+  // How many lookups in the sub-action or invariant caches found the
+  // projection already there, and how many had to evaluate it.
+  record CacheCounts(int hits, int misses) { }
+
   private final Interpreter interpreter;
+  private final ValueTable table = new ValueTable();
+  private final List<String> names;
+  // The slots of the variables in the order they were declared.
+  private final int[] declared;
   private Stmt.OpDef init = null;
   private Stmt.OpDef next = null;
   private List<Stmt.OpDef> invariants = new ArrayList<>();
+  private final Map<String, FrameAnalysis.Frame> frames = new HashMap<>();
+  private final List<SubAction> actions = new ArrayList<>();
+  private final List<Invariant> invariantChecks = new ArrayList<>();
+  private int successorHits = 0;
+  private int successorMisses = 0;
+  private int invariantHits = 0;
+  private int invariantMisses = 0;
 
   ModelChecker(Interpreter interpreter, List<Stmt> spec) {
     this.interpreter = interpreter;
+    this.names = interpreter.getVariables().stream().sorted().toList();
+    this.declared =
+        interpreter.getVariables().stream().mapToInt(names::indexOf).toArray();
     for (Stmt unit : spec) {
-      if (unit instanceof Stmt.OpDef op) {
+      if (unit instanceof Stmt.OpDef def) {
+        Stmt.OpDef op = resolve(def);
         switch (op.name.lexeme) {
           case "Init"   -> init = op;
           case "Next"   -> next = op;
@@ -35,6 +94,129 @@ class ModelChecker {
     validate(init, "Init");
     validate(next, "Next");
     for (Stmt.OpDef inv : invariants) validate(inv, inv.name.lexeme);
+
+    frames.put(init.name.lexeme,
+        FrameAnalysis.analyze(interpreter.spec, init.body, true));
+    frames.put(next.name.lexeme, interpreter.spec.frame(next.body));
+    for (Stmt.OpDef inv : invariants) {
+      FrameAnalysis.Frame frame = interpreter.spec.frame(inv.body);
+      frames.put(inv.name.lexeme, frame);
+      int[] reads = frame.reads().stream().mapToInt(names::indexOf).toArray();
+      invariantChecks.add(new Invariant(inv, reads,
+          reads.length == names.size() ? null : boundedCache()));
+    }
+
+    List<Expr> disjuncts = new ArrayList<>();
+    flatten(next.body, TokenType.OR, disjuncts);
+    for (Expr disjunct : disjuncts) {
+      FrameAnalysis.Frame frame = interpreter.spec.frame(disjunct);
+      // A disjunct that cannot assign every variable has no successors.
+      if (!frame.writesAll(interpreter.getVariables())) continue;
+      actions.add(subAction(disjunct));
+    }
+  }
+
+  private SubAction subAction(Expr disjunct) {
+    List<Expr> conjuncts = new ArrayList<>();
+    flatten(disjunct, TokenType.AND, conjuncts);
+    Set<String> reads = new TreeSet<>();
+    Set<String> writes = new TreeSet<>();
+    Set<String> unchanged = new TreeSet<>();
+    for (Expr conjunct : conjuncts) {
+      String name = unchangedVariable(conjunct);
+      if (name != null) {
+        unchanged.add(name);
+        continue;
+      }
+
+      FrameAnalysis.Frame frame = interpreter.spec.frame(conjunct);
+      reads.addAll(frame.reads());
+      writes.addAll(frame.writes());
+    }
+
+    // x' = x is a test, not an assignment, if x' is assigned elsewhere.
+    unchanged.removeAll(writes);
+    int[] readSlots = reads.stream().mapToInt(names::indexOf).toArray();
+    int[] unchangedSlots = unchanged.stream().mapToInt(names::indexOf).toArray();
+    SuccessorTemplate template =
+        SuccessorTemplate.compile(interpreter, next.name, disjunct);
+    return new SubAction(disjunct, template, readSlots, unchangedSlots,
+        readSlots.length == names.size() ? null : boundedCache());
+  }
+
+  // The variable x if the conjunct is x' = x.
+  private String unchangedVariable(Expr conjunct) {
+    if (conjunct instanceof Expr.Grouping grouping) {
+      return unchangedVariable(grouping.expression);
+    }
+
+    if (conjunct instanceof Expr.Binary binary
+        && binary.operator.type == TokenType.EQUAL
+        && binary.left instanceof Expr.Unary prime
+        && prime.operator.type == TokenType.PRIME
+        && binary.right instanceof Expr.Variable variable
+        && variable.arguments.isEmpty()
+        && interpreter.isStateVariable(variable.name)
+        && prime.expr.equals(variable)) {
+      return variable.name.lexeme;
+    }
+
+    return null;
+  }
+
+  // Splits an action into its top-level disjuncts or conjuncts, looking
+  // through parentheses and references to other operators.
+  private void flatten(Expr action, TokenType junction, List<Expr> junctions) {
+    if (action instanceof Expr.Grouping grouping) {
+      flatten(grouping.expression, junction, junctions);
+    } else if (action instanceof Expr.Variadic variadic
+        && variadic.operator.type == junction) {
+      for (Expr junct : variadic.parameters) flatten(junct, junction, junctions);
+    } else if (action instanceof Expr.Variable reference
+        && reference.arguments.isEmpty()
+        && interpreter.globals.isDefined(reference.name)
+        && interpreter.globals.get(reference.name) instanceof TlaOperator op
+        && op.arity() == 0 && !op.isRecursive()) {
+      flatten(op.declaration.body, junction, junctions);
+    } else {
+      junctions.add(action);
+    }
+  }
+
+  private static <V> Map<State, V> boundedCache() {
+    return new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<State, V> eldest) {
+        return size() > MAX_CACHED_PROJECTIONS;
+      }
+    };
+  }
+
+  // The variables read and assigned by Init, Next or an invariant.
+  FrameAnalysis.Frame getFrame(String name) {
+    return frames.get(name);
+  }
+
+  CacheCounts getSuccessorCacheCounts() {
+    return new CacheCounts(successorHits, successorMisses);
+  }
+
+  CacheCounts getInvariantCacheCounts() {
+    return new CacheCounts(invariantHits, invariantMisses);
+  }
+
+  // The variables that Init or Next can never assign. An action that leaves
+  // a variable unassigned has no resulting states at all.
+  Set<String> getUnassignedVariables(String action) {
+    Set<String> unassigned = new TreeSet<>(interpreter.getVariables());
+    unassigned.removeAll(frames.get(action).writes());
+    return unassigned;
+  }
+
+  private Stmt.OpDef resolve(Stmt.OpDef op) {
+    return interpreter.globals.isDefined(op.name)
+        && interpreter.globals.get(op.name) instanceof TlaOperator defined
+        ? defined.declaration : op;
   }
 
   private static void validate(Stmt.OpDef op, String name) {
@@ -49,27 +231,183 @@ class ModelChecker {
     }
   }
 
+  private State encode(Map<String, Object> state) {
+    int[] values = new int[names.size()];
+    long fingerprint = 0;
+    for (int i = 0; i < values.length; i++) {
+      values[i] = table.intern(state.get(names.get(i)));
+      fingerprint += term(i, values[i]);
+    }
+
+    return new State(values, fingerprint);
+  }
+
+  // Encodes a successor of the given state, interning and fingerprinting
+  // only the values that the action replaced.
+  private State encode(Map<String, Object> state,
+                       State predecessor, Map<String, Object> decoded) {
+    int[] values = predecessor.values.clone();
+    long fingerprint = predecessor.fingerprint;
+    for (int i = 0; i < values.length; i++) {
+      String name = names.get(i);
+      Object value = state.get(name);
+      if (value == decoded.get(name)) continue;
+      int id = table.intern(value);
+      if (id == values[i]) continue;
+      fingerprint += term(i, id) - term(i, values[i]);
+      values[i] = id;
+    }
+
+    return new State(values, fingerprint);
+  }
+
+  // The successor of the given state whose variables have the given ids,
+  // where UNCHANGED slots keep the state's own.
+  private State encode(int[] cached, State predecessor) {
+    int[] values = cached.clone();
+    long fingerprint = predecessor.fingerprint;
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] == UNCHANGED) {
+        values[i] = predecessor.values[i];
+      } else if (values[i] != predecessor.values[i]) {
+        fingerprint += term(i, values[i]) - term(i, predecessor.values[i]);
+      }
+    }
+
+    return new State(values, fingerprint);
+  }
+
+  // The ids of the given variables only, fingerprinted as if they were a
+  // whole state.
+  private State project(State state, int[] slots) {
+    int[] values = new int[slots.length];
+    long fingerprint = 0;
+    for (int i = 0; i < slots.length; i++) {
+      values[i] = state.values[slots[i]];
+      fingerprint += term(slots[i], values[i]);
+    }
+
+    return new State(values, fingerprint);
+  }
+
+  // Mixing the slot into each term keeps equal values in different
+  // variables from cancelling out.
+  private long term(int slot, int id) {
+    return Values.mix(table.fingerprint(id) + Values.mix(slot + 1));
+  }
+
+  private Map<String, Object> decode(State state) {
+    Map<String, Object> decoded = new HashMap<>();
+    for (int i = 0; i < state.values.length; i++) {
+      decoded.put(names.get(i), table.get(state.values[i]));
+    }
+
+    return decoded;
+  }
+
+  // A state as a trace shows it, with variables in declaration order.
+  private Map<String, Object> show(State state) {
+    Map<String, Object> shown = new LinkedHashMap<>();
+    for (int slot : declared) {
+      shown.put(names.get(slot), table.get(state.values[slot]));
+    }
+
+    return shown;
+  }
+
+  private List<State> successors(State current, Map<String, Object> decoded) {
+    List<State> successors = new ArrayList<>();
+    for (int index = 0; index < actions.size(); index++) {
+      SubAction action = actions.get(index);
+      State key = action.cache == null ? null : project(current, action.reads);
+      List<int[]> cached = key == null ? null : action.cache.get(key);
+      if (cached != null) {
+        successorHits++;
+        for (int[] values : cached) successors.add(encode(values, current));
+        continue;
+      }
+
+      List<int[]> computed = new ArrayList<>();
+      List<Map<String, Object>> nextStates = nextStates(index);
+      for (Map<String, Object> nextState : nextStates) {
+        State successor = encode(nextState, current, decoded);
+        int[] values = successor.values.clone();
+        for (int slot : action.unchanged) values[slot] = UNCHANGED;
+        computed.add(values);
+        successors.add(successor);
+      }
+
+      if (key != null) {
+        successorMisses++;
+        action.cache.put(key, computed);
+      }
+    }
+
+    return successors;
+  }
+
+  // The successors of the current state under a sub-action. A template
+  // checks guards ahead of conjuncts that come before them, where they might
+  // fail on states those conjuncts would have ruled out first, so an error
+  // hands the sub-action back to the interpreter for good.
+  private List<Map<String, Object>> nextStates(int index) {
+    SubAction action = actions.get(index);
+    if (action.template != null) {
+      try {
+        return SuccessorTemplate.successors(action.template, interpreter);
+      } catch (RuntimeError error) {
+        actions.set(index, new SubAction(action.body, null, action.reads,
+            action.unchanged, action.cache));
+      }
+    }
+
+    return interpreter.getNextStates(next.name, action.body);
+  }
+
+  private boolean holds(Invariant invariant, State state) {
+    if (invariant.cache == null) {
+      return (boolean)invariant.op.body.accept(interpreter);
+    }
+
+    State key = project(state, invariant.reads);
+    Boolean holds = invariant.cache.get(key);
+    if (holds == null) {
+      invariantMisses++;
+      holds = (boolean)invariant.op.body.accept(interpreter);
+      invariant.cache.put(key, holds);
+    } else {
+      invariantHits++;
+    }
+
+    return holds;
+  }
+
   StateTrace checkSafety() {
-    Deque<Map<String, Object>> pendingStates = new ArrayDeque<>();
-    Map<Map<String, Object>, Map<String, Object>> predecessors = new HashMap<>();
+    Deque<State> pendingStates = new ArrayDeque<>();
+    Map<State, State> predecessors = new HashMap<>();
+    if (!getUnassignedVariables(init.name.lexeme).isEmpty()) return null;
     for (Map<String, Object> initialState : interpreter.getNextStates(init.name, init.body)) {
-      predecessors.put(initialState, null);
-      pendingStates.add(initialState);
+      State initial = encode(initialState);
+      if (!predecessors.containsKey(initial)) {
+        predecessors.put(initial, null);
+        pendingStates.add(initial);
+      }
     }
 
     while (!pendingStates.isEmpty()) {
-      Map<String, Object> current = pendingStates.remove();
-      interpreter.goToState(current);
-      for (Stmt.OpDef invariant : invariants) {
-        if (!(boolean)invariant.body.accept(interpreter)) {
-          return reconstructStateTrace(predecessors, current, invariant);
+      State current = pendingStates.remove();
+      Map<String, Object> currentState = decode(current);
+      interpreter.goToState(currentState);
+      for (Invariant invariant : invariantChecks) {
+        if (!holds(invariant, current)) {
+          return reconstructStateTrace(predecessors, current, invariant.op);
         }
       }
 
-      for (Map<String, Object> next : interpreter.getNextStates(next.name, next.body)) {
-        if (!predecessors.containsKey(next)) {
-          predecessors.put(next, current);
-          pendingStates.add(next);
+      for (State successor : successors(current, currentState)) {
+        if (!predecessors.containsKey(successor)) {
+          predecessors.put(successor, current);
+          pendingStates.add(successor);
         }
       }
     }
@@ -78,12 +416,12 @@ class ModelChecker {
   }
 
   StateTrace reconstructStateTrace(
-      Map<Map<String, Object>, Map<String, Object>> predecessors,
-      Map<String, Object> state,
+      Map<State, State> predecessors,
+      State state,
       Stmt.OpDef invariant
   ) {
-    List<Map<String, Object>> trace = new ArrayList<>();
-    Map<String, Object> predecessor = state;
+    List<State> trace = new ArrayList<>();
+    State predecessor = state;
     do {
       trace.add(predecessor);
       predecessor = predecessors.get(predecessor);
@@ -92,8 +430,8 @@ class ModelChecker {
 
     List<Step> steps = new ArrayList<>();
     Stmt.OpDef action = init;
-    for (Map<String, Object> nextState : trace) {
-      steps.add(new Step(action.name.lexeme, nextState));
+    for (State nextState : trace) {
+      steps.add(new Step(action.name.lexeme, show(nextState)));
       action = next;
     }
 
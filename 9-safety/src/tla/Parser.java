@@ -3,6 +3,9 @@ package tla;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 
 import static tla.TokenType.*;
 
@@ -12,14 +15,25 @@ class Parser {
       boolean assoc, int lowPrec, int highPrec) { }
   private static class ParseError extends RuntimeException {}
 
-  private final List<Token> tokens;
+  private final TokenWindow tokens;
   private int current = 0;
   private final boolean replMode;
+  private final boolean lookingAhead;
   private final ArrayDeque<Integer> jlists = new ArrayDeque<>();
+  private final Map<Expr, Expr> interned = new HashMap<>();
+
+  Parser(Scanner scanner, boolean replMode) {
+    this(new TokenWindow(scanner::scan), replMode, false);
+  }
 
   Parser(List<Token> tokens, boolean replMode) {
+    this(window(tokens.iterator()), replMode, false);
+  }
+
+  private Parser(TokenWindow tokens, boolean replMode, boolean lookingAhead) {
     this.tokens = tokens;
     this.replMode = replMode;
+    this.lookingAhead = lookingAhead;
   }
 
   List<Stmt> parse() {
@@ -90,7 +104,7 @@ class Parser {
     if ((op = matchOp(Fix.PREFIX, prec)) != null) {
       Token opToken = previous();
       Expr expr = operatorExpression(op.assoc ? op.lowPrec : op.highPrec + 1);
-      return new Expr.Unary(opToken, expr);
+      return intern(new Expr.Unary(opToken, expr));
     }
 
     Expr expr = operatorExpression(prec + 1);
@@ -103,7 +117,7 @@ class Parser {
 
     while ((op = matchOp(Fix.POSTFIX, prec)) != null) {
       Token opToken = previous();
-      expr = new Expr.Unary(opToken, expr);
+      expr = intern(new Expr.Unary(opToken, expr));
       if (!op.assoc) break;
     }
 
@@ -116,18 +130,18 @@ class Parser {
     while (match(LEFT_BRACKET)) {
       Expr argument = expression();
       consume(RIGHT_BRACKET, "Require ']' to conclude function call");
-      expr = new Expr.FnApply(expr, previous(), argument);
+      expr = intern(new Expr.FnApply(expr, previous(), argument));
     }
 
     return expr;
   }
 
   private Expr primary() {
-    if (match(FALSE)) return new Expr.Literal(false);
-    if (match(TRUE)) return new Expr.Literal(true);
+    if (match(FALSE)) return intern(new Expr.Literal(false));
+    if (match(TRUE)) return intern(new Expr.Literal(true));
 
     if (match(NUMBER)) {
-      return new Expr.Literal(previous().literal);
+      return intern(new Expr.Literal(previous().literal));
     }
 
     if (match(IDENTIFIER)) {
@@ -139,13 +153,13 @@ class Parser {
         } while (match(COMMA));
         consume(RIGHT_PAREN, "Require ')' to conclude operator call");
       }
-      return new Expr.Variable(identifier, arguments);
+      return intern(new Expr.Variable(identifier, arguments));
     }
 
     if (match(LEFT_PAREN)) {
       Expr expr = expression();
       consume(RIGHT_PAREN, "Expect ')' after expression.");
-      return new Expr.Grouping(expr);
+      return intern(new Expr.Grouping(expr));
     }
 
     if (match(IF)) {
@@ -155,7 +169,7 @@ class Parser {
       Expr yes = expression();
       consume(ELSE, "'ELSE' required after 'THEN' expression.");
       Expr no = expression();
-      return new Expr.Ternary(operator, condition, yes, no);
+      return intern(new Expr.Ternary(operator, condition, yes, no));
     }
 
     if (match(LEFT_BRACE)) {
@@ -167,7 +181,7 @@ class Parser {
         } while (match(COMMA));
       }
       consume(RIGHT_BRACE, "'}' is required to terminate finite set literal.");
-      return new Expr.Variadic(operator, elements);
+      return intern(new Expr.Variadic(operator, elements));
     }
 
     if (match(LEFT_BRACKET)) {
@@ -178,7 +192,7 @@ class Parser {
       Token op = consume(ALL_MAP_TO, "'|->' required in function constructor.");
       Expr expr = expression();
       consume(RIGHT_BRACKET, "']' required to conclude function constructor.");
-      return new Expr.QuantFn(op, params, set, expr);
+      return intern(new Expr.QuantFn(op, params, set, expr));
     }
 
     if (match(FOR_ALL, EXISTS)) {
@@ -191,7 +205,7 @@ class Parser {
       Expr set = expression();
       consume(COLON, "':' required in quantifier.");
       Expr expr = expression();
-      return new Expr.QuantFn(op, params, set, expr);
+      return intern(new Expr.QuantFn(op, params, set, expr));
     }
 
     if (match(AND, OR)) {
@@ -235,7 +249,7 @@ class Parser {
       disjuncts.add(right);
       return flattenJLists(op, disjuncts);
     } else {
-      return new Expr.Binary(left, op, right);
+      return intern(new Expr.Binary(left, op, right));
     }
   }
 
@@ -250,7 +264,7 @@ class Parser {
       }
     }
 
-    return new Expr.Variadic(op, flattened);
+    return intern(new Expr.Variadic(op, flattened));
   }
 
   private Expr.Variadic asVariadicOp(Token op, Expr expr) {
@@ -259,15 +273,25 @@ class Parser {
       ? vExpr : null;
   }
 
+  private Expr intern(Expr expr) {
+    Expr existing = interned.putIfAbsent(expr, expr);
+    if (existing != null) expr.canonical = existing;
+    return expr;
+  }
+
+  private static TokenWindow window(Iterator<Token> tokens) {
+    return new TokenWindow(window -> window.add(tokens.next()));
+  }
+
   private Parser lookahead() {
-    Parser lookahead = new Parser(tokens, replMode);
+    Parser lookahead = new Parser(tokens, replMode, true);
     lookahead.current = current;
     return lookahead;
   }
 
   private boolean matchBullet(TokenType op, int column) {
-    if (peek().type == op && peek().column == column) {
-      advance();
+    if (tokens.type(current) == op && tokens.column(current) == column) {
+      skip();
       return true;
     }
 
@@ -287,7 +311,7 @@ class Parser {
   private boolean match(TokenType... types) {
     for (TokenType type : types) {
       if (check(type)) {
-        advance();
+        skip();
         return true;
       }
     }
@@ -303,17 +327,28 @@ class Parser {
 
   private boolean check(TokenType type) {
     if (isAtEnd()) return false;
-    if (!jlists.isEmpty() && peek().column <= jlists.peek()) return false;
-    return peek().type == type;
+    if (!jlists.isEmpty() && tokens.column(current) <= jlists.peek()) {
+      return false;
+    }
+
+    return tokens.type(current) == type;
   }
 
   private Token advance() {
-    if (!isAtEnd()) current++;
+    skip();
     return previous();
   }
 
+  // Moves past the current token without building it.
+  private void skip() {
+    if (!isAtEnd()) current++;
+
+    // Only a lookahead parser can go back, and never before its parent.
+    if (!lookingAhead) tokens.release(current - 1);
+  }
+
   private boolean isAtEnd() {
-    return peek().type == EOF;
+    return tokens.type(current) == EOF;
   }
 
   private Token peek() {
@@ -331,12 +366,12 @@ class Parser {
 
   private void synchronize() {
     jlists.clear();
-    advance();
+    skip();
 
     while(!isAtEnd()) {
       if (lookahead().isAtOpDefStart()) return;
 
-      advance();
+      skip();
     }
   }
 }
@@ -1,37 +1,108 @@
 package tla;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import static tla.TokenType.*;
 
+// Tokens are scanned one at a time as the parser asks for them. Only the
+// characters from the start of the current lexeme onward are buffered, so
+// the source is never held in memory as a whole.
 class Scanner {
-  private final String source;
-  private final List<Token> tokens = new ArrayList<>();
+  private static final int BUFFER_SIZE = 1 << 13;
+
+  private final Reader source;
+  private char[] buffer = new char[BUFFER_SIZE];
+  private int limit = 0;
+  private boolean exhausted = false;
+  private TokenType type = null;
+  private int symbol = SymbolTable.NO_SYMBOL;
   private int start = 0;
   private int current = 0;
   private int line = 1;
   private int column = 0;
 
   Scanner(String source) {
+    this(new StringReader(source));
+  }
+
+  Scanner(Reader source) {
     this.source = source;
   }
 
   List<Token> scanTokens() {
-    while (!isAtEnd()) {
+    List<Token> tokens = new ArrayList<>();
+    do {
+      tokens.add(nextToken());
+    } while (tokens.get(tokens.size() - 1).type != EOF);
+
+    return tokens;
+  }
+
+  // The next token in the source, or EOF from then on once it is used up.
+  Token nextToken() {
+    TokenType type = scan();
+    Object literal = type == NUMBER ? number(buffer, start, current - start)
+        : null;
+    String lexeme = symbol == SymbolTable.NO_SYMBOL ? lexeme() : null;
+    return new Token(type, lexeme, literal, line, startColumn(), symbol);
+  }
+
+  // Adds the next token to the window without building a Token for it.
+  void scan(TokenWindow window) {
+    TokenType type = scan();
+    window.add(type, buffer, start, current - start, line, startColumn(),
+        symbol);
+  }
+
+  private TokenType scan() {
+    type = null;
+    symbol = SymbolTable.NO_SYMBOL;
+    while (type == null) {
       // We are at the beginning of the next lexeme.
       start = current;
+      if (isAtEnd()) return EOF;
       scanToken();
     }
 
-    tokens.add(new Token(EOF, "", null, line, column));
-    return tokens;
+    return type;
   }
 
   private boolean isAtEnd() {
-    return current >= source.length();
+    return current >= limit && !fill();
+  }
+
+  // Reads more of the source into the buffer, keeping the current lexeme
+  // and dropping what came before it. False if there is no more to read.
+  private boolean fill() {
+    if (exhausted) return false;
+    if (start > 0) {
+      System.arraycopy(buffer, start, buffer, 0, limit - start);
+      limit -= start;
+      current -= start;
+      start = 0;
+    }
+
+    if (limit == buffer.length) buffer = Arrays.copyOf(buffer, 2 * limit);
+    try {
+      int read = source.read(buffer, limit, buffer.length - limit);
+      if (read < 0) {
+        exhausted = true;
+        return false;
+      }
+
+      limit += read;
+      return true;
+    } catch (IOException error) {
+      throw new UncheckedIOException(error);
+    }
   }
 
   private void scanToken() {
@@ -116,7 +187,7 @@ class Scanner {
   private void symbol() {
     while (isAlpha(peek())) advance();
 
-    String text = source.substring(start, current);
+    String text = lexeme();
     TokenType type = symbols.get(text);
     if (type == null) TlaPlus.error(line, "Unexpected character.");
     else addToken(type);
@@ -149,9 +220,12 @@ class Scanner {
   private void identifier() {
     while (isAlphaNumeric(peek())) advance();
 
-    String text = source.substring(start, current);
-    TokenType type = keywords.get(text);
-    if (type == null) type = IDENTIFIER;
+    TokenType type = isCapitalized() ? keywords.get(lexeme()) : null;
+    if (type == null) {
+      symbol = SymbolTable.intern(buffer, start, current - start);
+      type = IDENTIFIER;
+    }
+
     addToken(type);
   }
 
@@ -159,20 +233,43 @@ class Scanner {
     return c >= '0' && c <= '9';
   }
 
+  // Keywords are all capitals, so other identifiers need not be looked up.
+  private boolean isCapitalized() {
+    for (int i = start; i < current; i++) {
+      if (buffer[i] < 'A' || buffer[i] > 'Z') return false;
+    }
+
+    return true;
+  }
+
   private void number() {
     while (isDigit(peek())) advance();
-    addToken(NUMBER,
-        Integer.parseInt(source.substring(start, current)));
+    if (number(buffer, start, current - start) < 0) {
+      TlaPlus.error(line, "Number too large.");
+    } else {
+      addToken(NUMBER);
+    }
+  }
+
+  // The value of the given digits, or -1 if it is too large for an int.
+  static int number(char[] digits, int offset, int length) {
+    long value = 0;
+    for (int i = offset; i < offset + length; i++) {
+      value = 10 * value + (digits[i] - '0');
+      if (value > Integer.MAX_VALUE) return -1;
+    }
+
+    return (int)value;
   }
 
   private char peek() {
     if (isAtEnd()) return '\0';
-    return source.charAt(current);
+    return buffer[current];
   }
 
   private boolean match(char expected) {
     if (isAtEnd()) return false;
-    if (source.charAt(current) != expected) return false;
+    if (buffer[current] != expected) return false;
 
     column++;
     current++;
@@ -187,17 +284,19 @@ class Scanner {
 
   private char advance() {
     column++;
-    return source.charAt(current++);
+    return buffer[current++];
   }
 
   private void addToken(TokenType type) {
-    addToken(type, null);
+    this.type = type;
+  }
+
+  private int startColumn() {
+    return column - (current - start);
   }
 
-  private void addToken(TokenType type, Object literal) {
-    String text = source.substring(start, current);
-    int start_column = column - (current - start);
-    tokens.add(new Token(type, text, literal, line, start_column));
+  private String lexeme() {
+    return new String(buffer, start, current - start);
   }
 }
 
@@ -0,0 +1,64 @@
+package tla;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+// The definitions and state variables of a spec, along with what has been
+// worked out about them. Interpreting statements adds to a spec; once they
+// have all run it no longer changes, and any number of threads can evaluate
+// it at once, each through an Interpreter of its own.
+final class Spec {
+  final Environment globals;
+  final boolean replMode;
+  final CommonSubexpressions subexpressions;
+
+  // In the order they were declared.
+  private final Map<String, Token> variables = new LinkedHashMap<>();
+  private final BitSet variableSymbols = new BitSet();
+  private final Map<Expr, FrameAnalysis.Frame> frames =
+      Collections.synchronizedMap(new IdentityHashMap<>());
+
+  Spec(boolean replMode) {
+    this.replMode = replMode;
+    this.globals = new Environment(replMode);
+    this.subexpressions = new CommonSubexpressions(this);
+  }
+
+  Set<String> getVariables() {
+    return Collections.unmodifiableSet(variables.keySet());
+  }
+
+  Collection<Token> getVariableNames() {
+    return Collections.unmodifiableCollection(variables.values());
+  }
+
+  boolean isStateVariable(Token name) {
+    return variableSymbols.get(name.symbol);
+  }
+
+  void declare(Token variable) {
+    variables.put(variable.lexeme, variable);
+    variableSymbols.set(variable.symbol);
+  }
+
+  // The variables an action reads and assigns.
+  FrameAnalysis.Frame frame(Expr action) {
+    FrameAnalysis.Frame frame = frames.get(action);
+    if (frame == null) {
+      frame = FrameAnalysis.analyze(this, action, false);
+      frames.put(action, frame);
+    }
+
+    return frame;
+  }
+
+  // Definitions can change in the REPL, which invalidates what is known.
+  void changed() {
+    frames.clear();
+  }
+}
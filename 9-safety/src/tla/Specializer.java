@@ -0,0 +1,196 @@
+package tla;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+class Specializer implements Expr.Visitor<Expr> {
+  private final Interpreter interpreter;
+  private final Token self;
+  private final boolean fold;
+  // The symbols of the parameters and of the names bound by the quantifiers
+  // being specialized, which stand for constant values.
+  private final Set<Integer> bound = new HashSet<>();
+  private final List<Token> free = new ArrayList<>();
+  private boolean constant = true;
+  private boolean action = false;
+  private boolean recursive = false;
+
+  Specializer(Interpreter interpreter, Token self, List<Token> params,
+              boolean fold) {
+    this.interpreter = interpreter;
+    this.self = self;
+    this.fold = fold;
+    for (Token param : params) bound.add(param.symbol);
+  }
+
+  Expr specialize(Expr expr) {
+    return expr.accept(this);
+  }
+
+  // Whether every expression specialized so far is constant-level. A name
+  // that is neither bound nor yet defined might turn out to be anything.
+  boolean isConstant() {
+    return constant && free.isEmpty();
+  }
+
+  // Whether every expression specialized so far is constant-level as long
+  // as the free names are.
+  boolean isConstantGivenFreeNames() {
+    return constant;
+  }
+
+  // The names used but neither bound nor defined, in order of first use.
+  List<Token> freeNames() {
+    return free;
+  }
+
+  // Whether any expression specialized so far can refer to the next state.
+  boolean isAction() {
+    return action;
+  }
+
+  // Whether any expression specialized so far can lead back to itself.
+  boolean isRecursive() {
+    return recursive;
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Expr.Binary expr) {
+    Expr left = specialize(expr.left);
+    Expr right = specialize(expr.right);
+    if (left == expr.left && right == expr.right) return expr;
+    return new Expr.Binary(left, expr.operator, right);
+  }
+
+  @Override
+  public Expr visitQuantFnExpr(Expr.QuantFn expr) {
+    Expr set = specialize(expr.set);
+    for (Token param : expr.params) bound.add(param.symbol);
+    Expr body = specialize(expr.body);
+    for (Token param : expr.params) bound.remove(param.symbol);
+    if (set == expr.set && body == expr.body) return expr;
+    return new Expr.QuantFn(expr.op, expr.params, set, body);
+  }
+
+  @Override
+  public Expr visitFnApplyExpr(Expr.FnApply expr) {
+    Expr fn = specialize(expr.fn);
+    Expr argument = specialize(expr.argument);
+    if (fn == expr.fn && argument == expr.argument) return expr;
+    return new Expr.FnApply(fn, expr.bracket, argument);
+  }
+
+  @Override
+  public Expr visitGroupingExpr(Expr.Grouping expr) {
+    Expr expression = specialize(expr.expression);
+    if (expression == expr.expression) return expr;
+    return new Expr.Grouping(expression);
+  }
+
+  @Override
+  public Expr visitLiteralExpr(Expr.Literal expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitVariableExpr(Expr.Variable expr) {
+    List<Expr> arguments = specializeAll(expr.arguments);
+    Expr specialized = arguments == expr.arguments
+        ? expr : new Expr.Variable(expr.name, arguments);
+
+    if (interpreter.isStateVariable(expr.name)) {
+      constant = false;
+      return specialized;
+    }
+
+    if (self != null && expr.name.symbol == self.symbol) {
+      recursive = true;
+      return specialized;
+    }
+
+    if (bound.contains(expr.name.symbol)) return specialized;
+
+    // A variable declared later, or an operator defined later that might
+    // call this one.
+    if (!interpreter.globals.isDefined(expr.name)) {
+      if (!free.contains(expr.name)) free.add(expr.name);
+      return specialized;
+    }
+
+    if (!(interpreter.globals.get(expr.name) instanceof TlaOperator op)) {
+      constant = false;
+      return specialized;
+    }
+
+    constant &= op.isConstant();
+    action |= op.isAction();
+    recursive |= op.isRecursive();
+
+    // Recursive operators are never folded, as they might not terminate.
+    if (!fold || !op.isConstant() || op.isRecursive()
+        || op.arity() != arguments.size()) {
+      return specialized;
+    }
+
+    List<Object> values = new ArrayList<>();
+    for (Expr argument : arguments) {
+      if (!(argument instanceof Expr.Literal literal)) return specialized;
+      values.add(literal.value);
+    }
+
+    try {
+      return new Expr.Literal(interpreter.fold(op, values));
+    } catch (RuntimeException | Error error) {
+      // Leave the call in place; it might never be evaluated, or might take
+      // too long to be worth evaluating now.
+      return specialized;
+    }
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Expr.Unary expr) {
+    if (expr.operator.type == TokenType.PRIME) {
+      constant = false;
+      action = true;
+    } else if (expr.operator.type == TokenType.ENABLED) {
+      constant = false;
+    }
+
+    Expr operand = specialize(expr.expr);
+    if (operand == expr.expr) return expr;
+    return new Expr.Unary(expr.operator, operand);
+  }
+
+  @Override
+  public Expr visitTernaryExpr(Expr.Ternary expr) {
+    Expr first = specialize(expr.first);
+    Expr second = specialize(expr.second);
+    Expr third = specialize(expr.third);
+    if (first == expr.first && second == expr.second && third == expr.third) {
+      return expr;
+    }
+
+    return new Expr.Ternary(expr.operator, first, second, third);
+  }
+
+  @Override
+  public Expr visitVariadicExpr(Expr.Variadic expr) {
+    List<Expr> parameters = specializeAll(expr.parameters);
+    if (parameters == expr.parameters) return expr;
+    return new Expr.Variadic(expr.operator, parameters);
+  }
+
+  private List<Expr> specializeAll(List<Expr> exprs) {
+    List<Expr> specialized = new ArrayList<>();
+    boolean changed = false;
+    for (Expr expr : exprs) {
+      Expr result = specialize(expr);
+      changed |= result != expr;
+      specialized.add(result);
+    }
+
+    return changed ? specialized : exprs;
+  }
+}
@@ -0,0 +1,489 @@
+package tla;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+
+// An action compiled into a generator of successor states. Each conjunction
+// checks its guards first, then enumerates its existential quantifiers, and
+// only then evaluates its assignments x' = e and x' \in S, so that failing
+// guards cost nothing. A guard can thus raise an error where the source
+// order would never have reached it, so callers fall back to the
+// interpreter on errors. Actions that do not fit this shape are not
+// compiled and are left to the interpreter.
+sealed interface SuccessorTemplate {
+
+  void generate(Interpreter interpreter, Environment environment,
+                Map<String, Object> assigned,
+                Consumer<Map<String, Object>> emit);
+
+  // The variables this template can assign.
+  Set<String> targets();
+
+  // The template for an action, or null if it does not have the shape of
+  // guards, existential quantifiers, calls, disjunctions and assignments.
+  static SuccessorTemplate compile(Interpreter interpreter, Token location,
+                                   Expr action) {
+    return new Compiler(interpreter).compile(action, location);
+  }
+
+  // The complete successor states of the current state.
+  static List<Map<String, Object>> successors(SuccessorTemplate template,
+                                              Interpreter interpreter) {
+    int variables = interpreter.getVariables().size();
+    List<Map<String, Object>> successors = new ArrayList<>();
+    template.generate(interpreter, interpreter.globals, new HashMap<>(),
+        state -> {
+          if (state.size() == variables) successors.add(state);
+        });
+    return successors;
+  }
+
+  record Alternatives(List<SuccessorTemplate> alternatives)
+      implements SuccessorTemplate {
+    @Override
+    public void generate(Interpreter interpreter, Environment environment,
+                         Map<String, Object> assigned,
+                         Consumer<Map<String, Object>> emit) {
+      for (SuccessorTemplate alternative : alternatives) {
+        alternative.generate(interpreter, environment, assigned, emit);
+      }
+    }
+
+    @Override
+    public Set<String> targets() {
+      Set<String> targets = new HashSet<>();
+      for (SuccessorTemplate alternative : alternatives) {
+        targets.addAll(alternative.targets());
+      }
+
+      return targets;
+    }
+  }
+
+  record Call(TlaOperator op, List<Expr> arguments, SuccessorTemplate body)
+      implements SuccessorTemplate {
+    @Override
+    public void generate(Interpreter interpreter, Environment environment,
+                         Map<String, Object> assigned,
+                         Consumer<Map<String, Object>> emit) {
+      Environment scope = new Environment(interpreter.globals);
+      for (int i = 0; i < arguments.size(); i++) {
+        scope.define(op.declaration.params.get(i),
+            interpreter.delay(arguments.get(i), environment));
+      }
+
+      body.generate(interpreter, scope, assigned, emit);
+    }
+
+    @Override
+    public Set<String> targets() {
+      return body.targets();
+    }
+  }
+
+  record Exists(Token op, List<Token> params, Expr set,
+                SuccessorTemplate body) implements SuccessorTemplate {
+    @Override
+    public void generate(Interpreter interpreter, Environment environment,
+                         Map<String, Object> assigned,
+                         Consumer<Map<String, Object>> emit) {
+      interpreter.checkNotDefined(params, environment);
+      Object domain = interpreter.executeBlock(set, environment);
+      if (!(domain instanceof Set<?> elements)) {
+        throw new RuntimeError(op, "Operand must be a set.");
+      }
+
+      BindingGenerator bindings = new BindingGenerator(params, elements, environment);
+      long size = 1;
+      for (int i = 0; i < params.size(); i++) {
+        size = Math.min(size * elements.size(), Interpreter.PARALLEL_THRESHOLD);
+      }
+
+      if (size < Interpreter.PARALLEL_THRESHOLD) {
+        for (Environment binding : bindings) {
+          body.generate(interpreter, binding, assigned, emit);
+        }
+        return;
+      }
+
+      List<Environment> all = new ArrayList<>();
+      bindings.forEach(all::add);
+      for (Map<String, Object> partial
+           : new Branches(interpreter, body, all, assigned).invoke()) {
+        emit.accept(partial);
+      }
+    }
+
+    @Override
+    public Set<String> targets() {
+      return body.targets();
+    }
+  }
+
+  // Generates the body under a share of the bindings in a context of its
+  // own, splitting the share in half until it is small enough. The results
+  // are joined in binding order, so successors come out in the same order
+  // as they would sequentially.
+  final class Branches extends RecursiveTask<List<Map<String, Object>>> {
+    private static final long serialVersionUID = 1L;
+
+    private final transient Interpreter parent;
+    private final transient SuccessorTemplate body;
+    private final transient List<Environment> bindings;
+    private final transient Map<String, Object> assigned;
+
+    Branches(Interpreter parent, SuccessorTemplate body,
+             List<Environment> bindings, Map<String, Object> assigned) {
+      this.parent = parent;
+      this.body = body;
+      this.bindings = bindings;
+      this.assigned = assigned;
+    }
+
+    @Override
+    protected List<Map<String, Object>> compute() {
+      int size = bindings.size();
+      if (size <= Interpreter.PARALLEL_THRESHOLD / 4) {
+        Interpreter context = parent.fork();
+        List<Map<String, Object>> partials = new ArrayList<>();
+        for (Environment binding : bindings) {
+          body.generate(context, binding, assigned, partials::add);
+        }
+        return partials;
+      }
+
+      Branches left = new Branches(parent, body, bindings.subList(0, size / 2), assigned);
+      Branches right = new Branches(parent, body, bindings.subList(size / 2, size), assigned);
+      left.fork();
+      List<Map<String, Object>> partials = right.compute();
+      List<Map<String, Object>> joined = new ArrayList<>(left.join());
+      joined.addAll(partials);
+      return joined;
+    }
+  }
+
+  // x' = e when choices is false, or x' \in e when it is true. Later
+  // conjuncts that test x' are pushed into the assignment as filters.
+  record Assignment(Token operator, String variable, Expr value,
+                    boolean choices, List<Filter> filters) {
+    // The elements worth trying against the filters, given their bounds.
+    // An interval is narrowed to the part they could accept.
+    Set<?> candidates(Set<?> elements, Object[] bounds) {
+      if (!(elements instanceof TlaSet.Interval interval)) return elements;
+      for (int i = 0; i < bounds.length; i++) {
+        interval = filters.get(i).narrow(interval, bounds[i]);
+      }
+
+      return interval;
+    }
+  }
+
+  // x' < e, e < x' when flipped, x' = e or x' \in e.
+  record Filter(Token operator, Expr bound, boolean flipped) {
+    boolean accepts(Object element, Object bound) {
+      switch (operator.type) {
+        case LESS_THAN:
+          if (!(element instanceof Integer x) || !(bound instanceof Integer b)) {
+            throw new RuntimeError(operator, "Operands must be numbers.");
+          }
+          return flipped ? b < x : x < b;
+        case IN:
+          if (!(bound instanceof Set<?> set)) {
+            throw new RuntimeError(operator, "Operand must be a set.");
+          }
+          return set.contains(element);
+        default:
+          return element.equals(bound);
+      }
+    }
+
+    // The part of the interval this filter could accept.
+    TlaSet.Interval narrow(TlaSet.Interval interval, Object bound) {
+      if (!(bound instanceof Integer b)) return interval;
+      long lower = interval.lower;
+      long upper = interval.upper;
+      switch (operator.type) {
+        case LESS_THAN:
+          if (flipped) lower = Math.max(lower, (long)b + 1);
+          else upper = Math.min(upper, (long)b - 1);
+          break;
+        case EQUAL:
+          lower = Math.max(lower, b);
+          upper = Math.min(upper, b);
+          break;
+        default:
+          return interval;
+      }
+
+      return lower <= upper
+          ? new TlaSet.Interval((int)lower, (int)upper)
+          : new TlaSet.Interval(1, 0);
+    }
+  }
+
+  record Conjunction(Token location, List<Expr> guards,
+                     List<SuccessorTemplate> actions,
+                     List<Assignment> assignments)
+      implements SuccessorTemplate {
+    @Override
+    public void generate(Interpreter interpreter, Environment environment,
+                         Map<String, Object> assigned,
+                         Consumer<Map<String, Object>> emit) {
+      for (Expr guard : guards) {
+        Object holds = interpreter.executeBlock(guard, environment);
+        if (!(holds instanceof Boolean)) {
+          throw new RuntimeError(location, "Operand must be a boolean.");
+        }
+
+        if (!(boolean)holds) return;
+      }
+
+      enumerate(0, interpreter, environment, assigned, emit);
+    }
+
+    private void enumerate(int action, Interpreter interpreter,
+                           Environment environment,
+                           Map<String, Object> assigned,
+                           Consumer<Map<String, Object>> emit) {
+      if (action == actions.size()) {
+        assign(0, interpreter, environment, assigned, emit);
+        return;
+      }
+
+      actions.get(action).generate(interpreter, environment, assigned,
+          partial -> enumerate(action + 1, interpreter, environment,
+                               partial, emit));
+    }
+
+    private void assign(int index, Interpreter interpreter,
+                        Environment environment,
+                        Map<String, Object> assigned,
+                        Consumer<Map<String, Object>> emit) {
+      if (index == assignments.size()) {
+        emit.accept(assigned);
+        return;
+      }
+
+      Assignment assignment = assignments.get(index);
+      Object value = interpreter.executeBlock(assignment.value, environment);
+      List<Filter> filters = assignment.filters;
+      Object[] bounds = new Object[filters.size()];
+      for (int i = 0; i < bounds.length; i++) {
+        bounds[i] = interpreter.executeBlock(filters.get(i).bound, environment);
+      }
+
+      if (!assignment.choices) {
+        if (!accepts(filters, value, bounds)) return;
+        Map<String, Object> next = new HashMap<>(assigned);
+        next.put(assignment.variable, value);
+        assign(index + 1, interpreter, environment, next, emit);
+        return;
+      }
+
+      if (!(value instanceof Set<?> elements)) {
+        throw new RuntimeError(assignment.operator, "Operand must be a set.");
+      }
+
+      for (Object element : assignment.candidates(elements, bounds)) {
+        if (!accepts(filters, element, bounds)) continue;
+        Map<String, Object> next = new HashMap<>(assigned);
+        next.put(assignment.variable, element);
+        assign(index + 1, interpreter, environment, next, emit);
+      }
+    }
+
+    private static boolean accepts(List<Filter> filters, Object element,
+                                   Object[] bounds) {
+      for (int i = 0; i < bounds.length; i++) {
+        if (!filters.get(i).accepts(element, bounds[i])) return false;
+      }
+
+      return true;
+    }
+
+    @Override
+    public Set<String> targets() {
+      Set<String> targets = new HashSet<>();
+      for (SuccessorTemplate action : actions) targets.addAll(action.targets());
+      for (Assignment assignment : assignments) targets.add(assignment.variable);
+      return targets;
+    }
+  }
+
+  final class Compiler {
+    private final Interpreter interpreter;
+    private final Set<TlaOperator> calling = new HashSet<>();
+
+    private Compiler(Interpreter interpreter) {
+      this.interpreter = interpreter;
+    }
+
+    private boolean isUnprimed(Expr expr) {
+      return interpreter.spec.frame(expr).writes().isEmpty();
+    }
+
+    private static Expr strip(Expr expr) {
+      while (expr instanceof Expr.Grouping grouping) expr = grouping.expression;
+      return expr;
+    }
+
+    private SuccessorTemplate compile(Expr action, Token location) {
+      action = strip(action);
+      if (action instanceof Expr.Variadic variadic
+          && variadic.operator.type == TokenType.OR) {
+        List<SuccessorTemplate> alternatives = new ArrayList<>();
+        for (Expr disjunct : variadic.parameters) {
+          SuccessorTemplate alternative = compile(disjunct, variadic.operator);
+          if (alternative == null) return null;
+          alternatives.add(alternative);
+        }
+
+        return new Alternatives(alternatives);
+      }
+
+      List<Expr> conjuncts = new ArrayList<>();
+      if (action instanceof Expr.Variadic variadic
+          && variadic.operator.type == TokenType.AND) {
+        location = variadic.operator;
+        for (Expr conjunct : variadic.parameters) conjuncts.add(strip(conjunct));
+      } else {
+        conjuncts.add(action);
+      }
+
+      return conjunction(conjuncts, location);
+    }
+
+    private SuccessorTemplate conjunction(List<Expr> conjuncts, Token location) {
+      List<Expr> guards = new ArrayList<>();
+      List<SuccessorTemplate> actions = new ArrayList<>();
+      List<Assignment> assignments = new ArrayList<>();
+      Set<String> targets = new HashSet<>();
+      for (Expr conjunct : conjuncts) {
+        if (isUnprimed(conjunct)) {
+          guards.add(conjunct);
+          continue;
+        }
+
+        Assignment assignment = assignment(conjunct);
+        if (assignment != null && targets.add(assignment.variable)) {
+          assignments.add(assignment);
+          continue;
+        }
+
+        // Once x' is assigned here, later tests of x' filter its values.
+        if (filter(conjunct, assignments)) continue;
+
+        SuccessorTemplate nested = nested(conjunct, location);
+        if (nested == null) return null;
+        actions.add(nested);
+      }
+
+      // A variable assigned twice would make the second assignment a test,
+      // which the template does not handle.
+      for (SuccessorTemplate action : actions) {
+        for (String target : action.targets()) {
+          if (!targets.add(target)) return null;
+        }
+      }
+
+      return new Conjunction(location, guards, actions, assignments);
+    }
+
+    private Assignment assignment(Expr conjunct) {
+      if (!(conjunct instanceof Expr.Binary binary)
+          || !(binary.operator.type == TokenType.EQUAL
+               || binary.operator.type == TokenType.IN)
+          || !(strip(binary.left) instanceof Expr.Unary prime)
+          || prime.operator.type != TokenType.PRIME
+          || !(strip(prime.expr) instanceof Expr.Variable variable)
+          || !variable.arguments.isEmpty()
+          || !interpreter.isStateVariable(variable.name)
+          || !isUnprimed(binary.right)) {
+        return null;
+      }
+
+      return new Assignment(binary.operator, variable.name.lexeme,
+          binary.right, binary.operator.type == TokenType.IN,
+          new ArrayList<>());
+    }
+
+    // The variable x if the expression is x'.
+    private String primedVariable(Expr expr) {
+      if (strip(expr) instanceof Expr.Unary prime
+          && prime.operator.type == TokenType.PRIME
+          && strip(prime.expr) instanceof Expr.Variable variable
+          && variable.arguments.isEmpty()
+          && interpreter.isStateVariable(variable.name)) {
+        return variable.name.lexeme;
+      }
+
+      return null;
+    }
+
+    // Adds x' < e, e < x', x' = e or x' \in e as a filter on an earlier
+    // assignment to x' in the same conjunction.
+    private boolean filter(Expr conjunct, List<Assignment> assignments) {
+      if (!(conjunct instanceof Expr.Binary binary)) return false;
+      TokenType type = binary.operator.type;
+      if (type != TokenType.LESS_THAN && type != TokenType.EQUAL
+          && type != TokenType.IN) {
+        return false;
+      }
+
+      String variable = primedVariable(binary.left);
+      Expr bound = binary.right;
+      boolean flipped = false;
+      if (variable == null && type != TokenType.IN) {
+        variable = primedVariable(binary.right);
+        bound = binary.left;
+        flipped = true;
+      }
+
+      if (variable == null || !isUnprimed(bound)) return false;
+      for (Assignment assignment : assignments) {
+        if (assignment.variable.equals(variable)) {
+          assignment.filters.add(new Filter(binary.operator, bound, flipped));
+          return true;
+        }
+      }
+
+      return false;
+    }
+
+    private SuccessorTemplate nested(Expr conjunct, Token location) {
+      if (conjunct instanceof Expr.Variadic) {
+        return compile(conjunct, location);
+      }
+
+      if (conjunct instanceof Expr.QuantFn quantifier
+          && quantifier.op.type == TokenType.EXISTS
+          && isUnprimed(quantifier.set)) {
+        SuccessorTemplate body = compile(quantifier.body, quantifier.op);
+        if (body == null) return null;
+        return new Exists(quantifier.op, quantifier.params, quantifier.set, body);
+      }
+
+      if (conjunct instanceof Expr.Variable reference
+          && interpreter.globals.isDefined(reference.name)
+          && interpreter.globals.get(reference.name) instanceof TlaOperator op
+          && op.arity() == reference.arguments.size()
+          && !op.isRecursive()
+          && reference.arguments.stream().allMatch(this::isUnprimed)
+          && !FrameAnalysis.primesArguments(interpreter.spec, reference)
+          && calling.add(op)) {
+        SuccessorTemplate body = compile(op.declaration.body, location);
+        calling.remove(op);
+        if (body == null) return null;
+        return new Call(op, reference.arguments, body);
+      }
+
+      return null;
+    }
+  }
+}
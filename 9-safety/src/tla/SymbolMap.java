@@ -0,0 +1,53 @@
+package tla;
+
+// A map keyed by symbol ids, probing an int array rather than hashing
+// strings and boxing keys.
+final class SymbolMap<V> {
+  // Ids plus one, with zero for an empty slot.
+  private int[] keys = new int[4];
+  private Object[] values = new Object[4];
+  private int size = 0;
+
+  boolean containsKey(int symbol) {
+    return keys[find(symbol)] != 0;
+  }
+
+  @SuppressWarnings("unchecked")
+  V get(int symbol) {
+    return (V)values[find(symbol)];
+  }
+
+  void put(int symbol, V value) {
+    int slot = find(symbol);
+    values[slot] = value;
+    if (keys[slot] != 0) return;
+
+    keys[slot] = symbol + 1;
+    if (2 * ++size > keys.length) grow();
+  }
+
+  // The slot holding the symbol, or the empty slot it would go in.
+  private int find(int symbol) {
+    int mask = keys.length - 1;
+    int hash = symbol * 0x9E3779B9;
+    int slot = (hash ^ (hash >>> 16)) & mask;
+    while (keys[slot] != 0 && keys[slot] != symbol + 1) {
+      slot = (slot + 1) & mask;
+    }
+
+    return slot;
+  }
+
+  private void grow() {
+    int[] oldKeys = keys;
+    Object[] oldValues = values;
+    keys = new int[2 * oldKeys.length];
+    values = new Object[2 * oldKeys.length];
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] == 0) continue;
+      int slot = find(oldKeys[i] - 1);
+      keys[slot] = oldKeys[i];
+      values[slot] = oldValues[i];
+    }
+  }
+}
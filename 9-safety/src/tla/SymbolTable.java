@@ -0,0 +1,70 @@
+package tla;
+
+import java.util.Arrays;
+
+// Identifiers are interned as they are scanned, each getting a dense id that
+// stands for it from then on, so names can be compared and looked up as
+// ints. Ids are shared by every spec in the process, which keeps lines
+// entered in the REPL consistent with those before them.
+final class SymbolTable {
+  static final int NO_SYMBOL = -1;
+
+  private static String[] names = new String[256];
+  // Ids plus one by hash of the name, with zero for an empty slot.
+  private static int[] slots = new int[512];
+  private static int size = 0;
+
+  private SymbolTable() { }
+
+  static int intern(String name) {
+    return intern(name.toCharArray(), 0, name.length());
+  }
+
+  static synchronized int intern(char[] chars, int offset, int length) {
+    int hash = 0;
+    for (int i = offset; i < offset + length; i++) hash = 31 * hash + chars[i];
+
+    int mask = slots.length - 1;
+    for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+      int id = slots[slot] - 1;
+      if (id < 0) return add(new String(chars, offset, length), slot);
+      if (matches(names[id], chars, offset, length)) return id;
+    }
+  }
+
+  static synchronized String name(int symbol) {
+    return names[symbol];
+  }
+
+  private static int add(String name, int slot) {
+    if (size == names.length) names = Arrays.copyOf(names, 2 * size);
+    names[size] = name;
+    slots[slot] = ++size;
+    if (2 * size > slots.length) rehash();
+    return size - 1;
+  }
+
+  private static void rehash() {
+    slots = new int[2 * slots.length];
+    int mask = slots.length - 1;
+    for (int id = 0; id < size; id++) {
+      int slot = spread(names[id].hashCode()) & mask;
+      while (slots[slot] != 0) slot = (slot + 1) & mask;
+      slots[slot] = id + 1;
+    }
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  private static boolean matches(String name, char[] chars, int offset,
+                                 int length) {
+    if (name.length() != length) return false;
+    for (int i = 0; i < length; i++) {
+      if (name.charAt(i) != chars[offset + i]) return false;
+    }
+
+    return true;
+  }
+}
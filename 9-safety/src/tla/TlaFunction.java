@@ -0,0 +1,264 @@
+package tla;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+// Function values, which behave as maps from their domain to their range.
+sealed interface TlaFunction extends Map<Object, Object> {
+
+  // A 64-bit hash of the mapping taken in canonical order of the domain, so
+  // equal functions have equal fingerprints whatever their representation.
+  long fingerprint();
+
+  // Functions never change once built, so their hash code and fingerprint
+  // are computed at most once, and unequal hash codes settle equality early.
+  abstract sealed class Base extends AbstractMap<Object, Object>
+                             implements TlaFunction {
+    private int hash = 0;
+    private volatile long fingerprint = 0;
+
+    int computeHash() {
+      return super.hashCode();
+    }
+
+    @Override
+    public final int hashCode() {
+      if (hash == 0) hash = computeHash();
+      return hash;
+    }
+
+    @Override
+    public final long fingerprint() {
+      if (fingerprint == 0) fingerprint = Values.fingerprintFunction(this);
+      return fingerprint;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (other == this) return true;
+      if (other instanceof TlaFunction function
+          && hashCode() != function.hashCode()) {
+        return false;
+      }
+
+      return super.equals(other);
+    }
+  }
+
+  // A function whose every value has already been computed.
+  final class Enumerated extends Base {
+    private final Map<Object, Object> mapping;
+
+    Enumerated(Map<Object, Object> mapping) {
+      this.mapping = mapping;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return mapping.containsKey(key);
+    }
+
+    @Override
+    public Object get(Object key) {
+      return mapping.get(key);
+    }
+
+    @Override
+    public int size() {
+      return mapping.size();
+    }
+
+    @Override
+    public Set<Entry<Object, Object>> entrySet() {
+      return Collections.unmodifiableMap(mapping).entrySet();
+    }
+  }
+
+  // A function whose domain is the interval lower .. lower + length - 1,
+  // with values stored by offset from the lower bound.
+  final class Indexed extends Base {
+    private final int lower;
+    private final Object[] values;
+
+    Indexed(int lower, Object[] values) {
+      this.lower = lower;
+      this.values = values;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return get(key) != null;
+    }
+
+    @Override
+    public Object get(Object key) {
+      if (!(key instanceof Integer i)) return null;
+      long offset = (long)i - lower;
+      return 0 <= offset && offset < values.length
+          ? values[(int)offset] : null;
+    }
+
+    @Override
+    public int size() {
+      return values.length;
+    }
+
+    @Override
+    public Set<Entry<Object, Object>> entrySet() {
+      return new AbstractSet<>() {
+        @Override
+        public int size() {
+          return values.length;
+        }
+
+        @Override
+        public Iterator<Entry<Object, Object>> iterator() {
+          return new Iterator<>() {
+            private int offset = 0;
+
+            @Override
+            public boolean hasNext() {
+              return offset < values.length;
+            }
+
+            @Override
+            public Entry<Object, Object> next() {
+              if (!hasNext()) throw new NoSuchElementException();
+              Object key = lower + offset;
+              return new SimpleImmutableEntry<>(key, values[offset++]);
+            }
+          };
+        }
+      };
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (other instanceof Indexed indexed) {
+        return values.length == 0 ? indexed.values.length == 0
+            : lower == indexed.lower && Arrays.equals(values, indexed.values);
+      }
+
+      return super.equals(other);
+    }
+
+    @Override
+    int computeHash() {
+      int hash = 0;
+      for (int i = 0; i < values.length; i++) {
+        hash += Integer.hashCode(lower + i) ^ values[i].hashCode();
+      }
+
+      return hash;
+    }
+  }
+
+  // A function [x \in S |-> e] that evaluates e for an element of S only
+  // when that element is first applied. Comparing, hashing or printing the
+  // function evaluates the rest, after which the closure is released.
+  final class Lazy extends Base {
+    // Small interval domains memoize into an array rather than a map.
+    private static final int MAX_SLOTS = 1 << 16;
+
+    private final Expr.QuantFn definition;
+    private final Set<?> domain;
+    private final Object[] slots;
+    private final Map<Object, Object> memo;
+    private final Thread owner = Thread.currentThread();
+    private Interpreter interpreter;
+    private Interpreter context = null;
+    private Environment closure;
+    private volatile TlaFunction complete = null;
+
+    Lazy(Interpreter interpreter, Expr.QuantFn definition,
+         Set<?> domain, Environment closure) {
+      this.interpreter = interpreter;
+      this.definition = definition;
+      this.domain = domain;
+      this.closure = closure;
+      boolean indexed = domain instanceof TlaSet.Interval interval
+          && interval.length() <= MAX_SLOTS;
+      this.slots = indexed ? new Object[domain.size()] : null;
+      this.memo = indexed ? null : new HashMap<>();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return domain.contains(key);
+    }
+
+    @Override
+    public Object get(Object key) {
+      TlaFunction done = complete;
+      if (done != null) return done.get(key);
+      if (!domain.contains(key)) return null;
+
+      synchronized (this) {
+        if (complete != null) return complete.get(key);
+        int offset = slots == null ? 0
+            : (int)key - ((TlaSet.Interval)domain).lower;
+        Object value = slots == null ? memo.get(key) : slots[offset];
+        if (value != null) return value;
+
+        value = context().apply(definition, closure, key);
+        if (slots == null) memo.put(key, value);
+        else slots[offset] = value;
+        return value;
+      }
+    }
+
+    // The interpreter that built this function may be busy on another
+    // thread, so other threads evaluate entries in a context of their own.
+    private Interpreter context() {
+      if (Thread.currentThread() == owner) return interpreter;
+      if (context == null) context = interpreter.fork();
+      return context;
+    }
+
+    @Override
+    public int size() {
+      return domain.size();
+    }
+
+    private synchronized TlaFunction materialize() {
+      if (complete == null) {
+        for (Object key : domain) get(key);
+        complete = domain instanceof TlaSet.Interval interval
+            ? new Indexed(interval.lower, slots != null ? slots
+                : domain.stream().map(memo::get).toArray())
+            : new Enumerated(memo);
+        interpreter = null;
+        context = null;
+        closure = null;
+      }
+
+      return complete;
+    }
+
+    @Override
+    public Set<Entry<Object, Object>> entrySet() {
+      return materialize().entrySet();
+    }
+
+    // Only one function is locked at a time, so comparing two lazy
+    // functions from two threads cannot deadlock.
+    @Override
+    public boolean equals(Object other) {
+      TlaFunction function = materialize();
+      return function.equals(
+          other instanceof Lazy lazy ? lazy.materialize() : other);
+    }
+
+    @Override
+    int computeHash() {
+      return materialize().hashCode();
+    }
+  }
+}
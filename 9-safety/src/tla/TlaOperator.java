@@ -1,11 +1,70 @@
 package tla;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 class TlaOperator implements TlaCallable {
-  private final Stmt.OpDef declaration;
-  TlaOperator(Stmt.OpDef declaration) {
+  // The most results a recursive operator remembers.
+  private static final int MAX_MEMOIZED = 1 << 16;
+
+  // Every this many misses, an operator with fewer memo hits than one per
+  // MIN_HIT_RATIO misses stops remembering results.
+  private static final int MEMO_SAMPLE = 1 << 10;
+  private static final int MIN_HIT_RATIO = 4;
+
+  final Stmt.OpDef declaration;
+  private final boolean constant;
+  private final boolean action;
+  private final boolean recursive;
+  private final Map<List<Object>, Object> memo;
+  private volatile boolean memoizing;
+  private final LongAdder hits = new LongAdder();
+  private final AtomicLong misses = new AtomicLong();
+
+  TlaOperator(Stmt.OpDef declaration, boolean constant,
+              boolean action, boolean recursive) {
     this.declaration = declaration;
+    this.constant = constant;
+    this.action = action;
+    this.recursive = recursive;
+    this.memo = isMemoized() ? new ConcurrentHashMap<>() : null;
+    this.memoizing = isMemoized();
+  }
+
+  boolean isConstant() {
+    return constant;
+  }
+
+  boolean isAction() {
+    return action;
+  }
+
+  boolean isRecursive() {
+    return recursive;
+  }
+
+  // A constant-level recursive operator gives the same result whenever it
+  // is called with the same arguments, so its results are remembered.
+  boolean isMemoized() {
+    return constant && recursive && !declaration.params.isEmpty();
+  }
+
+  // Whether results are still being remembered, which stops once they are
+  // seldom asked for again.
+  boolean isMemoizing() {
+    return memoizing;
+  }
+
+  long memoHits() {
+    return hits.sum();
+  }
+
+  long memoMisses() {
+    return misses.get();
   }
 
   @Override
@@ -16,6 +75,54 @@ class TlaOperator implements TlaCallable {
   @Override
   public Object call(Interpreter interpreter,
                      List<Object> arguments) {
+    // Definitions can change in the REPL, and with them the result.
+    if (!memoizing || interpreter.spec.replMode) {
+      return evaluate(interpreter, arguments);
+    }
+
+    // An argument the body might never use could fail when forced, so
+    // then the call goes ahead by need as if it were not memoized.
+    List<Object> key = new ArrayList<>();
+    for (Object argument : arguments) {
+      Object value;
+      try {
+        value = interpreter.force(argument);
+      } catch (RuntimeError error) {
+        return evaluate(interpreter, arguments);
+      }
+
+      if (!isHashable(value)) return evaluate(interpreter, arguments);
+      key.add(value);
+    }
+
+    Object result = memo.get(key);
+    if (result != null) {
+      hits.increment();
+      return result;
+    }
+
+    long missed = misses.incrementAndGet();
+    if (missed % MEMO_SAMPLE == 0
+        && hits.sum() * MIN_HIT_RATIO < missed) {
+      memoizing = false;
+      memo.clear();
+    }
+
+    result = evaluate(interpreter, key);
+    if (memoizing && memo.size() < MAX_MEMOIZED) memo.put(key, result);
+    return result;
+  }
+
+  // Values whose hash code is cheap: not the unassigned variables of an
+  // initial predicate, nor sets and functions that have never been
+  // enumerated.
+  private static boolean isHashable(Object value) {
+    return value instanceof Integer || value instanceof Boolean
+        || value instanceof TlaSet && !(value instanceof TlaSet.Product)
+        || value instanceof TlaFunction && !(value instanceof TlaFunction.Lazy);
+  }
+
+  private Object evaluate(Interpreter interpreter, List<Object> arguments) {
     Environment environment = new Environment(interpreter.globals);
     for (int i = 0; i < declaration.params.size(); i++) {
       environment.define(declaration.params.get(i), arguments.get(i));
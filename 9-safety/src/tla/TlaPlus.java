@@ -3,18 +3,41 @@ package tla;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class TlaPlus {
   private static Interpreter interpreter;
   static boolean hadError = false;
   static boolean hadRuntimeError = false;
 
-  public static void main(String[] args) throws IOException {
+  // Evaluation of recursive specs nests deeply, so it runs on a thread
+  // with a deep stack rather than on the main thread.
+  public static void main(String[] args)
+      throws IOException, InterruptedException {
+    Throwable[] failure = new Throwable[1];
+    Thread worker = Interpreter.deepStackThread(() -> {
+      try {
+        start(args);
+      } catch (IOException | RuntimeException | Error error) {
+        failure[0] = error;
+      }
+    }, "main");
+    worker.start();
+    worker.join();
+
+    if (failure[0] instanceof IOException error) throw error;
+    if (failure[0] instanceof RuntimeException error) throw error;
+    if (failure[0] instanceof Error error) throw error;
+  }
+
+  private static void start(String[] args) throws IOException {
     if (args.length > 1) {
       System.out.println("Usage: jlox [script]");
       System.exit(64);
@@ -27,8 +50,12 @@ public class TlaPlus {
 
   private static void runFile(String path) throws IOException {
     interpreter = new Interpreter(false);
-    byte[] bytes = Files.readAllBytes(Paths.get(path));
-    run(new String(bytes, StandardCharsets.UTF_8), false);
+    try (Reader reader =
+        Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+      run(new Scanner(reader), false);
+    } catch (UncheckedIOException error) {
+      throw error.getCause();
+    }
 
     // Indicate an error in the exit code.
     if (hadError) System.exit(65);
@@ -44,16 +71,13 @@ public class TlaPlus {
       System.out.print("> ");
       String line = reader.readLine();
       if (line == null) break;
-      run(line, true);
+      run(new Scanner(line), true);
       hadError = false;
     }
   }
 
-  private static void run(String source, boolean replMode) {
-    Scanner scanner = new Scanner(source);
-    List<Token> tokens = scanner.scanTokens();
-
-    Parser parser = new Parser(tokens, replMode);
+  private static void run(Scanner scanner, boolean replMode) {
+    Parser parser = new Parser(scanner, replMode);
     List<Stmt> statements = parser.parse();
 
     // Stop if there was a syntax error.
@@ -69,12 +93,30 @@ public class TlaPlus {
 
     if (!replMode) {
       ModelChecker mc = new ModelChecker(interpreter, statements);
+      for (String action : List.of("Init", "Next")) {
+        Set<String> unassigned = mc.getUnassignedVariables(action);
+        if (!unassigned.isEmpty()) {
+          System.out.println("Warning: " + action + " never assigns "
+              + String.join(", ", unassigned) + ".");
+        }
+      }
+
       ModelChecker.StateTrace trace = mc.checkSafety();
       System.out.println(
           trace == null
           ? "Invariants hold on state space."
           : "Invariants do not hold; trace:\n" + trace
       );
+
+      // Statistics go to stderr, apart from the result on stdout.
+      for (Stmt statement : statements) {
+        if (statement instanceof Stmt.OpDef def
+            && interpreter.globals.get(def.name) instanceof TlaOperator op
+            && op.isMemoized() && op.memoHits() + op.memoMisses() > 0) {
+          System.err.println("Memoized " + def.name.lexeme + ": "
+              + op.memoHits() + " hits, " + op.memoMisses() + " misses.");
+        }
+      }
     }
   }
 
@@ -0,0 +1,440 @@
+package tla;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+// Set values answer membership and cardinality without enumerating their
+// elements where they can, and stream their elements when they cannot.
+sealed interface TlaSet extends Set<Object> {
+
+  // Sets up to this size are kept as sorted arrays.
+  int MAX_SMALL = 8;
+
+  // The set of the given elements, in whichever representation suits them.
+  static TlaSet of(List<Object> elements) {
+    if (elements.isEmpty()) return Empty.INSTANCE;
+    if (elements.size() <= MAX_SMALL) {
+      Object[] sorted = elements.toArray();
+      Arrays.sort(sorted, Values::compare);
+      int size = 1;
+      for (int i = 1; i < sorted.length; i++) {
+        if (!sorted[i].equals(sorted[size - 1])) sorted[size++] = sorted[i];
+      }
+
+      if (size == 1) return new Singleton(sorted[0]);
+      return new Small(Arrays.copyOf(sorted, size));
+    }
+
+    Set<Object> distinct = new HashSet<>(elements);
+    if (distinct.size() <= MAX_SMALL) return of(new ArrayList<>(distinct));
+    TlaSet bits = Bits.of(distinct);
+    return bits != null ? bits : new Hashed(distinct);
+  }
+
+  static int clamp(long size) {
+    return (int)Math.min(size, Integer.MAX_VALUE);
+  }
+
+  // A 64-bit hash of the elements taken in canonical order, so equal sets
+  // have equal fingerprints whatever their representation.
+  long fingerprint();
+
+  // Sets never change once built, so their hash code and fingerprint are
+  // computed at most once, and unequal hash codes settle equality early.
+  abstract sealed class Base extends AbstractSet<Object> implements TlaSet {
+    private int hash = 0;
+    private volatile long fingerprint = 0;
+
+    int computeHash() {
+      return super.hashCode();
+    }
+
+    @Override
+    public final int hashCode() {
+      if (hash == 0) hash = computeHash();
+      return hash;
+    }
+
+    @Override
+    public final long fingerprint() {
+      if (fingerprint == 0) fingerprint = Values.fingerprintSet(this);
+      return fingerprint;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (other == this) return true;
+      if (other instanceof TlaSet set && hashCode() != set.hashCode()) {
+        return false;
+      }
+
+      return super.equals(other);
+    }
+  }
+
+  final class Empty extends Base {
+    static final Empty INSTANCE = new Empty();
+
+    private Empty() { }
+
+    @Override
+    public boolean contains(Object element) {
+      return false;
+    }
+
+    @Override
+    public int size() {
+      return 0;
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+      return Collections.emptyIterator();
+    }
+  }
+
+  final class Singleton extends Base {
+    private final Object element;
+
+    Singleton(Object element) {
+      this.element = element;
+    }
+
+    @Override
+    public boolean contains(Object other) {
+      return element.equals(other);
+    }
+
+    @Override
+    public int size() {
+      return 1;
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+      return Collections.singleton(element).iterator();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (other instanceof Singleton singleton) {
+        return element.equals(singleton.element);
+      }
+
+      return super.equals(other);
+    }
+
+    @Override
+    int computeHash() {
+      return element.hashCode();
+    }
+  }
+
+  // A few distinct elements, kept in the order given by Values.compare.
+  final class Small extends Base {
+    private final Object[] elements;
+
+    Small(Object[] elements) {
+      this.elements = elements;
+    }
+
+    @Override
+    public boolean contains(Object other) {
+      for (Object element : elements) {
+        if (element.equals(other)) return true;
+      }
+
+      return false;
+    }
+
+    @Override
+    public int size() {
+      return elements.length;
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+      return Arrays.asList(elements).iterator();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (other instanceof Small small) {
+        return Arrays.equals(elements, small.elements);
+      }
+
+      return super.equals(other);
+    }
+
+  }
+
+  final class Hashed extends Base {
+    private final Set<Object> elements;
+
+    Hashed(Set<Object> elements) {
+      this.elements = elements;
+    }
+
+    @Override
+    public boolean contains(Object element) {
+      return elements.contains(element);
+    }
+
+    @Override
+    public int size() {
+      return elements.size();
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+      return Collections.unmodifiableSet(elements).iterator();
+    }
+
+  }
+
+  // Integers drawn from a small range, one bit each. The lowest element is
+  // always bit 0 of the first word and the last word is never zero, so
+  // equal sets have equal words.
+  final class Bits extends Base {
+    private final int offset;
+    private final long[] words;
+    private final int size;
+
+    private Bits(int offset, long[] words, int size) {
+      this.offset = offset;
+      this.words = words;
+      this.size = size;
+    }
+
+    // Null unless the elements are integers dense enough for a bitset.
+    static Bits of(Set<Object> elements) {
+      int lowest = Integer.MAX_VALUE;
+      int highest = Integer.MIN_VALUE;
+      for (Object element : elements) {
+        if (!(element instanceof Integer i)) return null;
+        lowest = Math.min(lowest, i);
+        highest = Math.max(highest, i);
+      }
+
+      long span = (long)highest - lowest + 1;
+      if (span > (long)Long.SIZE * elements.size()) return null;
+      long[] words = new long[(int)((span + Long.SIZE - 1) / Long.SIZE)];
+      for (Object element : elements) {
+        int bit = (int)((Integer)element - (long)lowest);
+        words[bit / Long.SIZE] |= 1L << bit;
+      }
+
+      return new Bits(lowest, words, elements.size());
+    }
+
+    @Override
+    public boolean contains(Object element) {
+      if (!(element instanceof Integer i)) return false;
+      long bit = (long)i - offset;
+      return 0 <= bit && bit < (long)words.length * Long.SIZE
+          && (words[(int)(bit / Long.SIZE)] & (1L << bit)) != 0;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+      return new Iterator<>() {
+        private int word = 0;
+        private long remaining = words[0];
+
+        @Override
+        public boolean hasNext() {
+          while (remaining == 0 && word < words.length - 1) {
+            remaining = words[++word];
+          }
+
+          return remaining != 0;
+        }
+
+        @Override
+        public Object next() {
+          if (!hasNext()) throw new NoSuchElementException();
+          int bit = Long.numberOfTrailingZeros(remaining);
+          remaining &= remaining - 1;
+          return offset + word * Long.SIZE + bit;
+        }
+      };
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (other instanceof Bits bits) {
+        return offset == bits.offset && Arrays.equals(words, bits.words);
+      }
+
+      return super.equals(other);
+    }
+
+  }
+
+  // The integers lower .. upper.
+  final class Interval extends Base {
+    final int lower;
+    final int upper;
+
+    Interval(int lower, int upper) {
+      this.lower = lower;
+      this.upper = upper;
+    }
+
+    long length() {
+      return Math.max(0, (long)upper - lower + 1);
+    }
+
+    @Override
+    public boolean contains(Object element) {
+      return element instanceof Integer i && lower <= i && i <= upper;
+    }
+
+    @Override
+    public int size() {
+      return clamp(length());
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return upper < lower;
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+      return new Iterator<>() {
+        private long next = lower;
+
+        @Override
+        public boolean hasNext() {
+          return next <= upper;
+        }
+
+        @Override
+        public Object next() {
+          if (!hasNext()) throw new NoSuchElementException();
+          return (int)next++;
+        }
+      };
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (other instanceof Interval interval) {
+        return isEmpty() ? interval.isEmpty()
+            : lower == interval.lower && upper == interval.upper;
+      }
+
+      return super.equals(other);
+    }
+
+    // The sum of the elements, which is what AbstractSet would compute.
+    @Override
+    int computeHash() {
+      long length = length();
+      long ends = (long)lower + upper;
+      return (int)(length % 2 == 0 ? length / 2 * ends : ends / 2 * length);
+    }
+  }
+
+  // The tuples drawn from each of the factors in turn, with the first
+  // component varying fastest.
+  final class Product extends Base {
+    private final List<? extends Set<?>> factors;
+
+    Product(List<? extends Set<?>> factors) {
+      this.factors = factors;
+    }
+
+    @Override
+    public boolean contains(Object element) {
+      if (!(element instanceof List<?> tuple)
+          || tuple.size() != factors.size()) {
+        return false;
+      }
+
+      for (int i = 0; i < factors.size(); i++) {
+        if (!factors.get(i).contains(tuple.get(i))) return false;
+      }
+
+      return true;
+    }
+
+    @Override
+    public int size() {
+      long size = 1;
+      for (Set<?> factor : factors) {
+        size = Math.min(size * factor.size(), Integer.MAX_VALUE);
+      }
+
+      return (int)size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return factors.stream().anyMatch(Set::isEmpty);
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+      return new Iterator<>() {
+        private final List<Iterator<?>> odometer = new ArrayList<>();
+        private final List<Object> tuple = new ArrayList<>();
+        private boolean started = false;
+        private boolean exhausted = isEmpty();
+
+        @Override
+        public boolean hasNext() {
+          if (exhausted) return false;
+          if (!started) return true;
+          return odometer.stream().anyMatch(Iterator::hasNext);
+        }
+
+        @Override
+        public Object next() {
+          if (!hasNext()) throw new NoSuchElementException();
+          if (!started) {
+            started = true;
+            for (Set<?> factor : factors) {
+              Iterator<?> digit = factor.iterator();
+              odometer.add(digit);
+              tuple.add(digit.next());
+            }
+          } else {
+            advance();
+          }
+
+          return List.copyOf(tuple);
+        }
+
+        private void advance() {
+          for (int i = 0; i < factors.size(); i++) {
+            Iterator<?> digit = odometer.get(i);
+            if (digit.hasNext()) {
+              tuple.set(i, digit.next());
+              return;
+            }
+
+            digit = factors.get(i).iterator();
+            odometer.set(i, digit);
+            tuple.set(i, digit.next());
+          }
+
+          exhausted = true;
+        }
+      };
+    }
+  }
+}
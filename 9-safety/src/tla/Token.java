@@ -1,20 +1,47 @@
 package tla;
 
+import java.util.Objects;
+
 class Token {
   final TokenType type;
   final String lexeme;
   final Object literal;
   final int line;
   final int column;
+  // The identifier's id in the symbol table, or NO_SYMBOL.
+  final int symbol;
 
   Token(TokenType type, String lexeme, Object literal, int line, int column) {
+    this(type, lexeme, literal, line, column, type == TokenType.IDENTIFIER
+        ? SymbolTable.intern(lexeme) : SymbolTable.NO_SYMBOL);
+  }
+
+  // An identifier's lexeme is the symbol table's copy, so none is given.
+  Token(TokenType type, String lexeme, Object literal, int line, int column,
+        int symbol) {
     this.type = type;
-    this.lexeme = lexeme;
+    this.lexeme = symbol == SymbolTable.NO_SYMBOL
+        ? lexeme : SymbolTable.name(symbol);
+    this.symbol = symbol;
     this.literal = literal;
     this.line = line;
     this.column = column;
   }
 
+  // Tokens are interchangeable if they differ only by position.
+  @Override
+  public boolean equals(Object object) {
+    return object instanceof Token other
+        && type == other.type
+        && lexeme.equals(other.lexeme)
+        && Objects.equals(literal, other.literal);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(type, lexeme, literal);
+  }
+
   public String toString() {
     return type + " " + lexeme + " " + literal;
   }
@@ -0,0 +1,154 @@
+package tla;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+// The stretch of tokens a parser can see: from the one it has just consumed
+// up to however far it has looked ahead. Tokens are pulled from the source
+// as they are first needed and dropped once the parser has moved past them,
+// so a spec is never held in memory as a whole list of tokens.
+//
+// Each token is kept as a row across parallel arrays, with an identifier's
+// symbol id standing for its lexeme and other lexemes in a shared character
+// buffer. The parser mostly asks only for a token's type
+// and column, so Token objects are built just for those it keeps.
+class TokenWindow {
+  private static final TokenType[] TYPES = TokenType.values();
+
+  private final Consumer<TokenWindow> source;
+  private int[] types = new int[16];
+  private int[] starts = new int[16];
+  private int[] lengths = new int[16];
+  private int[] lines = new int[16];
+  private int[] columns = new int[16];
+  private int[] symbols = new int[16];
+  private Token[] tokens = new Token[16];
+  private int first = 0;
+  private int count = 0;
+  private boolean ended = false;
+
+  // The lexemes, with text[0] at offset textFirst from the start of the
+  // source's lexemes taken together.
+  private char[] text = new char[256];
+  private int textFirst = 0;
+  private int textEnd = 0;
+
+  // The source adds a token to the window each time it is called.
+  TokenWindow(Consumer<TokenWindow> source) {
+    this.source = source;
+  }
+
+  TokenType type(int index) {
+    return TYPES[types[slot(index)]];
+  }
+
+  int column(int index) {
+    return columns[slot(index)];
+  }
+
+  // The token at the given position from the start of the source, which
+  // must not have been released. Positions past the end give the EOF token.
+  Token get(int index) {
+    int slot = slot(index);
+    if (tokens[slot] == null) {
+      TokenType type = TYPES[types[slot]];
+      int start = starts[slot] - textFirst;
+      Object literal = type == TokenType.NUMBER
+          ? Scanner.number(text, start, lengths[slot]) : null;
+      String lexeme = symbols[slot] == SymbolTable.NO_SYMBOL
+          ? new String(text, start, lengths[slot]) : null;
+      tokens[slot] = new Token(type, lexeme, literal, lines[slot],
+          columns[slot], symbols[slot]);
+    }
+
+    return tokens[slot];
+  }
+
+  // Forgets the tokens before the given position.
+  void release(int index) {
+    while (first < index && count > 0) {
+      tokens[first & (tokens.length - 1)] = null;
+      first++;
+      count--;
+    }
+  }
+
+  void add(TokenType type, char[] lexeme, int offset, int length,
+      int line, int column, int symbol) {
+    if (symbol != SymbolTable.NO_SYMBOL) length = 0;
+    int slot = reserve(length);
+    System.arraycopy(lexeme, offset, text, textEnd - textFirst, length);
+    textEnd += length;
+    types[slot] = type.ordinal();
+    lines[slot] = line;
+    columns[slot] = column;
+    symbols[slot] = symbol;
+    ended = type == TokenType.EOF;
+  }
+
+  void add(Token token) {
+    int length = token.lexeme.length();
+    int slot = reserve(length);
+    token.lexeme.getChars(0, length, text, textEnd - textFirst);
+    textEnd += length;
+    types[slot] = token.type.ordinal();
+    lines[slot] = token.line;
+    columns[slot] = token.column;
+    symbols[slot] = token.symbol;
+    tokens[slot] = token;
+    ended = token.type == TokenType.EOF;
+  }
+
+  private int slot(int index) {
+    while (index >= first + count && !ended) source.accept(this);
+    return Math.min(index, first + count - 1) & (tokens.length - 1);
+  }
+
+  // Makes room for one more token with a lexeme of the given length,
+  // returning its slot.
+  private int reserve(int length) {
+    if (count == tokens.length) grow();
+    int kept = count > 0 ? starts[first & (tokens.length - 1)] : textEnd;
+    if (textEnd + length - textFirst > text.length) {
+      System.arraycopy(text, kept - textFirst, text, 0, textEnd - kept);
+      textFirst = kept;
+      if (textEnd + length - textFirst > text.length) {
+        text = Arrays.copyOf(text,
+            Math.max(2 * text.length, textEnd + length - textFirst));
+      }
+    }
+
+    int slot = (first + count) & (tokens.length - 1);
+    starts[slot] = textEnd;
+    lengths[slot] = length;
+    tokens[slot] = null;
+    count++;
+    return slot;
+  }
+
+  private void grow() {
+    int capacity = 2 * tokens.length;
+    int[][] rows = { types, starts, lengths, lines, columns, symbols };
+    for (int r = 0; r < rows.length; r++) {
+      int[] grown = new int[capacity];
+      for (int i = first; i < first + count; i++) {
+        grown[i & (capacity - 1)] = rows[r][i & (tokens.length - 1)];
+      }
+
+      rows[r] = grown;
+    }
+
+    Token[] grownTokens = new Token[capacity];
+    for (int i = first; i < first + count; i++) {
+      grownTokens[i & (capacity - 1)] = tokens[i & (tokens.length - 1)];
+    }
+
+    types = rows[0];
+    starts = rows[1];
+    lengths = rows[2];
+    lines = rows[3];
+    columns = rows[4];
+    symbols = rows[5];
+    tokens = grownTokens;
+  }
+}
@@ -0,0 +1,48 @@
+package tla;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Gives each distinct value a dense integer id, so that states can refer
+// to a value by id and equal values are stored once however many states
+// contain them. Lookups are lock-free; adding a new value takes a lock.
+class ValueTable {
+  private final Map<Object, Integer> ids = new ConcurrentHashMap<>();
+  private volatile Object[] values = new Object[64];
+  private volatile long[] fingerprints = new long[64];
+  private int size = 0;
+
+  int intern(Object value) {
+    Integer id = ids.get(value);
+    if (id != null) return id;
+
+    synchronized (this) {
+      id = ids.get(value);
+      if (id != null) return id;
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+        fingerprints = Arrays.copyOf(fingerprints, size * 2);
+      }
+
+      // The value is stored before its id is published, so any thread that
+      // has seen the id can read the value.
+      values[size] = value;
+      fingerprints[size] = Values.fingerprint(value);
+      ids.put(value, size);
+      return size++;
+    }
+  }
+
+  Object get(int id) {
+    return values[id];
+  }
+
+  long fingerprint(int id) {
+    return fingerprints[id];
+  }
+
+  int size() {
+    return ids.size();
+  }
+}
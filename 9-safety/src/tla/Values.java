@@ -0,0 +1,124 @@
+package tla;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+final class Values {
+  // Tags that keep values of different kinds from sharing fingerprints.
+  private static final long INTEGER = 1L << 40;
+  private static final long BOOLEAN = 2L << 40;
+  private static final long SET = 3L << 40;
+  private static final long FUNCTION = 4L << 40;
+
+  private Values() { }
+
+  // A total order on values that is consistent with equals. Integers come
+  // before booleans, then sets, then functions; sets and functions are
+  // ordered by size and then element by element in this same order.
+  static int compare(Object a, Object b) {
+    if (a == b) return 0;
+    int rank = Integer.compare(rank(a), rank(b));
+    if (rank != 0) return rank;
+    if (a instanceof Integer i) return Integer.compare(i, (Integer)b);
+    if (a instanceof Boolean p) return Boolean.compare(p, (Boolean)b);
+    if (a instanceof Set<?> s) return compareSets(s, (Set<?>)b);
+    if (a instanceof Map<?, ?> f) return compareFunctions(f, (Map<?, ?>)b);
+    return Integer.compare(a.hashCode(), b.hashCode());
+  }
+
+  private static int rank(Object value) {
+    if (value instanceof Integer) return 0;
+    if (value instanceof Boolean) return 1;
+    if (value instanceof Set<?>) return 2;
+    if (value instanceof Map<?, ?>) return 3;
+    return 4;
+  }
+
+  // The elements of a set in canonical order.
+  static List<Object> sorted(Set<?> set) {
+    List<Object> elements = new ArrayList<>(set);
+    if (!(set instanceof TlaSet.Interval
+          || set instanceof TlaSet.Small
+          || set instanceof TlaSet.Bits)) {
+      elements.sort(Values::compare);
+    }
+
+    return elements;
+  }
+
+  // A 64-bit fingerprint that equal values share. Sets and functions cache
+  // their own; integers and booleans are cheap enough to mix every time.
+  static long fingerprint(Object value) {
+    if (value instanceof Integer i) return mix(INTEGER + i);
+    if (value instanceof Boolean p) return mix(BOOLEAN + (p ? 1 : 0));
+    if (value instanceof TlaSet set) return set.fingerprint();
+    if (value instanceof TlaFunction function) return function.fingerprint();
+    if (value instanceof Set<?> set) return fingerprintSet(set);
+    if (value instanceof Map<?, ?> function) return fingerprintFunction(function);
+    return mix(value.hashCode());
+  }
+
+  static long fingerprintSet(Set<?> set) {
+    long fingerprint = SET;
+    for (Object element : sorted(set)) {
+      fingerprint = combine(fingerprint, fingerprint(element));
+    }
+
+    return fingerprint;
+  }
+
+  static long fingerprintFunction(Map<?, ?> function) {
+    Iterable<?> domain = function instanceof TlaFunction.Indexed
+        ? function.keySet() : sorted(function.keySet());
+    long fingerprint = FUNCTION;
+    for (Object key : domain) {
+      fingerprint = combine(fingerprint, fingerprint(key));
+      fingerprint = combine(fingerprint, fingerprint(function.get(key)));
+    }
+
+    return fingerprint;
+  }
+
+  private static long combine(long fingerprint, long element) {
+    return mix(fingerprint * 31 + element);
+  }
+
+  // The SplitMix64 finalizer, which spreads every input bit over the output.
+  static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  private static int compareSets(Set<?> a, Set<?> b) {
+    int size = Integer.compare(a.size(), b.size());
+    if (size != 0 || a.equals(b)) return size;
+    return compareSequences(sorted(a).iterator(), sorted(b).iterator());
+  }
+
+  private static int compareFunctions(Map<?, ?> a, Map<?, ?> b) {
+    int size = Integer.compare(a.size(), b.size());
+    if (size != 0 || a.equals(b)) return size;
+    List<Object> keys = sorted(a.keySet());
+    int domain = compareSequences(keys.iterator(), sorted(b.keySet()).iterator());
+    if (domain != 0) return domain;
+    for (Object key : keys) {
+      int value = compare(a.get(key), b.get(key));
+      if (value != 0) return value;
+    }
+
+    return 0;
+  }
+
+  private static int compareSequences(Iterator<?> a, Iterator<?> b) {
+    while (a.hasNext() && b.hasNext()) {
+      int element = compare(a.next(), b.next());
+      if (element != 0) return element;
+    }
+
+    return Boolean.compare(a.hasNext(), b.hasNext());
+  }
+}
@@ -22,34 +22,36 @@ public class GenerateAst {
       "Unary    : Token operator, Expr expr",
       "Ternary  : Token operator, Expr first, Expr second, Expr third",
       "Variadic : Token operator, List<Expr> parameters"
-    ));
+    ), true);
 
     defineAst(outputDir, "Stmt", Arrays.asList(
       "VarDecl  : List<Token> names",
       "Print    : Token location, Expr expression",
       "OpDef    : Token name, List<Token> params, Expr body"
-    ));
+    ), false);
   }
 
   private static void defineAst(
-      String outputDir, String baseName, List<String> types)
-      throws IOException {
+      String outputDir, String baseName, List<String> types,
+      boolean structural) throws IOException {
     String path = outputDir + "/" + baseName + ".java";
     PrintWriter writer = new PrintWriter(path, "UTF-8");
 
     writer.println("package tla;");
     writer.println();
     writer.println("import java.util.List;");
+    if (structural) writer.println("import java.util.Objects;");
     writer.println();
     writer.println("abstract class " + baseName + " {");
 
     defineVisitor(writer, baseName, types);
+    if (structural) defineCanonical(writer, baseName);
 
     // The AST classes.
     for (String type : types) {
       String className = type.split(":")[0].trim();
       String fields = type.split(":")[1].trim();
-      defineType(writer, baseName, className, fields);
+      defineType(writer, baseName, className, fields, structural);
     }
 
     // The base accept() method.
@@ -73,9 +75,18 @@ public class GenerateAst {
     writer.println("  }");
   }
 
+  private static void defineCanonical(PrintWriter writer, String baseName) {
+    writer.println();
+    writer.println("  // The first occurrence of an equal expression, standing for all of them");
+    writer.println("  // wherever values are shared. Each occurrence keeps its own tokens, so");
+    writer.println("  // errors are reported where they happen.");
+    writer.println("  " + baseName + " canonical = this;");
+    writer.println();
+  }
+
   private static void defineType(
       PrintWriter writer, String baseName,
-      String className, String fieldList) {
+      String className, String fieldList, boolean structural) {
     writer.println("  static class " + className + " extends " +
         baseName + " {");
 
@@ -99,13 +110,48 @@ public class GenerateAst {
         className + baseName + "(this);");
     writer.println("    }");
 
+    // Structural equality, so equal subtrees can be interned.
+    if (structural) defineStructure(writer, className, fields);
+
     // Fields.
     writer.println();
     for (String field : fields) {
       writer.println("    final " + field + ";");
     }
+    if (structural) writer.println("    private int hash;");
 
     writer.println("  }");
   }
+
+  private static void defineStructure(
+      PrintWriter writer, String className, String[] fields) {
+    writer.println();
+    writer.println("    @Override");
+    writer.println("    public boolean equals(Object object) {");
+    writer.println("      if (this == object) return true;");
+    writer.println("      if (!(object instanceof " + className +
+        " other)) return false;");
+    writer.print("      return hashCode() == other.hashCode()");
+    for (String field : fields) {
+      String name = field.split(" ")[1];
+      writer.println();
+      writer.print("          && Objects.equals(" + name +
+          ", other." + name + ")");
+    }
+    writer.println(";");
+    writer.println("    }");
+
+    writer.println();
+    writer.println("    @Override");
+    writer.println("    public int hashCode() {");
+    writer.print("      if (hash == 0) hash = Objects.hash(\"" +
+        className + "\"");
+    for (String field : fields) {
+      writer.print(", " + field.split(" ")[1]);
+    }
+    writer.println(");");
+    writer.println("      return hash;");
+    writer.println("    }");
+  }
 }
 
@@ -218,6 +218,23 @@ public class TestActionEvaluation {
     );
   }
 
+  @Test
+  public void testFunctionTraces() {
+    String spec = """
+        VARIABLES f
+        Init == f = [i \\in 1 .. 3 |-> 0]
+        Next == \\E j \\in 1 .. 3 : f' = [i \\in 1 .. 3 |-> IF i = j THEN f[i] + 1 ELSE f[i]]
+        Inv == \\A i \\in 1 .. 3 : f[i] < 3
+        """;
+    isTrace(
+        spec,
+        Map.of("f", Map.of(1, 0, 2, 0, 3, 0)),
+        Map.of("f", Map.of(1, 0, 2, 1, 3, 0)),
+        Map.of("f", Map.of(1, 0, 2, 1, 3, 1)),
+        Map.of("f", Map.of(1, 1, 2, 1, 3, 1))
+    );
+  }
+
   @Test
   public void testDisjunctionAndExistsTraces() {
     String spec = """
@@ -285,4 +302,79 @@ public class TestActionEvaluation {
         Map.of("x", 2)
     );
   }
+
+  @Test
+  public void testSharedSubexpressionTraces() {
+    String spec = """
+        VARIABLES x, y
+        Inc(n) == n + 1
+        Init == x = 0 /\\ y = 0
+        Next ==
+          \\/ /\\ Inc(x) < 3
+             /\\ x' = Inc(x)
+             /\\ y' = y
+          \\/ /\\ Inc(x) < 3
+             /\\ y' = Inc(x) + y
+             /\\ x' = x
+        Inv == y < Inc(x) + Inc(x) + Inc(x) + Inc(x)
+        """;
+    isTrace(
+        spec,
+        Map.of("x", 0, "y", 0),
+        Map.of("x", 0, "y", 1),
+        Map.of("x", 1, "y", 1),
+        Map.of("x", 1, "y", 3),
+        Map.of("x", 2, "y", 3)
+    );
+  }
+
+  @Test
+  public void testPrimedParameterTraces() {
+    String spec = """
+        VARIABLES x, y
+        Step(v, n) == v' = v + n
+        Keep(v) == v' = v
+        Init == x = 0 /\\ y = 0
+        Next ==
+          \\/ Step(x, 1) /\\ Keep(y)
+          \\/ Step(y, 2) /\\ Keep(x)
+        Inv == y < 10
+        """;
+    isTrace(
+        spec,
+        Map.of("x", 0, "y", 0),
+        Map.of("x", 1, "y", 0),
+        Map.of("x", 1, "y", 2),
+        Map.of("x", 2, "y", 2)
+    );
+  }
+
+  @Test
+  public void testParameterUsedPrimedAndUnprimed() {
+    // v is forced unprimed first, which must not answer for v'.
+    String spec = """
+        VARIABLE x
+        Step(v) == v < 3 /\\ v' = v + 1
+        Init == x = 0
+        Next == Step(x)
+        Inv == x < 4
+        """;
+    isTrace(spec, Map.of("x", 0), Map.of("x", 1), Map.of("x", 2), Map.of("x", 3));
+  }
+
+  @Test
+  public void testParameterAssignment() {
+    assertEquals(List.of(Map.of("x", 1)),
+        getNextStates("VARIABLE x Set(v) == v = 1 /\\ v = 1", "Set(x)"));
+    assertEquals(List.of(),
+        getNextStates("VARIABLE x Set(v) == v = 1 /\\ v = 2", "Set(x)"));
+  }
+
+  @Test
+  public void testHighFanoutStateGeneration() {
+    List<Map<String, Object>> states = getNextStates(
+        "VARIABLES x, y I == x \\in 0 .. 2999 /\\ y \\in {TRUE, FALSE} /\\ (x < 1500 \\/ y)", "I");
+    assertEquals(4500, states.size());
+    assertEquals(4500, new java.util.HashSet<>(states).size());
+  }
 }
@@ -1,6 +1,12 @@
 package tla;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.junit.jupiter.api.Test;
 
@@ -47,6 +53,57 @@ public class TestExpressionEvaluation {
     assertEquals("false", Utils.interpret("(1 .. 3) = {1, 2}"));
   }
 
+  @Test
+  public void testIntegerArithmetic() {
+    assertEquals("4", Utils.interpret("(1 + 2) - (3 - 4)"));
+    assertEquals("true", Utils.interpret("-(1 + 2) < (0 - 2)"));
+    assertEquals("[2, 3, 4]", Utils.interpret("(1 + 1) .. (2 + 2)"));
+    assertEquals("2147483647", Utils.interpret("2147483647 - 1 + 1"));
+    assertEquals("-2147483648", Utils.interpret("0 - 2147483647 - 1"));
+    assertTrue(Utils.hasInterpreterError("2147483647 + 1"));
+    assertTrue(Utils.hasInterpreterError("-2147483647 - 2"));
+    assertTrue(Utils.hasInterpreterError("-(0 - 2147483647 - 1)"));
+    assertTrue(Utils.hasInterpreterError("1 + (2 - TRUE)"));
+  }
+
+  @Test
+  public void testNestedIntegerOperands() {
+    assertEquals("8", Utils.interpret("(IF TRUE THEN 1 ELSE 2) + 3 - -(IF FALSE THEN 1 ELSE 4)"));
+    assertEquals("3", Utils.interpret("f(x) == x + 1 f(f(1)) - f(0) + 1"));
+    assertEquals("[0, 1, 2]", Utils.interpret("f(x) == -x f(0) .. (f(-2) + f(0))"));
+    assertEquals("true", Utils.interpret("f(x) == x - 1 f(1) - f(2) < -f(1) + (0 - 0)"));
+    assertEquals("2", Utils.interpret("x == 1 + 1 x + x - x"));
+
+    // Deeper than one stack's worth of nesting.
+    String chain = "1" + " + 1".repeat(1999);
+    assertEquals("2000", Utils.interpret(chain));
+    assertEquals("0", Utils.interpret("(" + chain + ") - (" + chain + ")"));
+  }
+
+  @Test
+  public void testNestedIntegerErrors() {
+    assertNestedError("1 + (2 - TRUE)", "Operands must be numbers.");
+    assertNestedError("1 - -(2 - -{})", "Operand must be a number.");
+    assertNestedError("1 < (2 + {1})", "Operands must be numbers.");
+    assertNestedError("(1 - (1 + TRUE)) .. 3", "Operands must be numbers.");
+    assertNestedError("1 + (2147483647 - 1 + 2) - 5", "Integer overflow.");
+    assertNestedError("0 - -(0 - 2147483647 - 1)", "Integer overflow.");
+    assertNestedError("1 + (1 < 2) + 3", "Operands must be numbers.");
+
+    try (IOCapture io = new IOCapture()) {
+      Utils.interpret(io, "1 +\n  (2 - TRUE)");
+      assertTrue(io.getCapturedOutput().err().contains("[line 2]"));
+    }
+  }
+
+  private static void assertNestedError(String input, String message) {
+    try (IOCapture io = new IOCapture()) {
+      Utils.interpret(io, input);
+      assertEquals("", io.getCapturedOutput().out().strip(), input);
+      assertTrue(io.getCapturedOutput().err().contains(message), input);
+    }
+  }
+
   @Test
   public void testShortCircuitEvaluation() {
     assertEquals("false", Utils.interpret("FALSE /\\ 123"));
@@ -84,6 +141,57 @@ public class TestExpressionEvaluation {
     assertEquals("true", Utils.interpret("{TRUE, 0..2, {{}}} \\in {{{0,1,2}, ~FALSE, {{}}}}"));
   }
 
+  @Test
+  public void testLazySetOperations() {
+    assertEquals("true", Utils.interpret("123456789 \\in 1 .. 2000000000"));
+    assertEquals("false", Utils.interpret("0 \\in 1 .. 2000000000"));
+    assertEquals("false", Utils.interpret("TRUE \\in 1 .. 2000000000"));
+    assertEquals("true", Utils.interpret("(1 .. 2000000000) = (1 .. 2000000000)"));
+    assertEquals("false", Utils.interpret("(1 .. 2000000000) = (0 .. 2000000000)"));
+    assertEquals("true", Utils.interpret("(3 .. 1) = (5 .. 2)"));
+    assertEquals("true", Utils.interpret("(3 .. 1) = {}"));
+    assertEquals("true", Utils.interpret("{1 .. 3, 2 .. 1} = {{}, {3, 2, 1}}"));
+  }
+
+  @Test
+  public void testSetRepresentations() {
+    assertEquals("true", Utils.interpret("{3, 1, 2, 1} = {1, 2, 3}"));
+    assertEquals("true", Utils.interpret("{1, 2, 3} = 1 .. 3"));
+    assertEquals("true", Utils.interpret("{TRUE, 1} = {1, TRUE}"));
+    assertEquals("true", Utils.interpret("{{2}, {1}} = {{1}, {2}}"));
+    assertEquals("true", Utils.interpret("{0, 1, 2, 3, 4, 5, 6, 7, 8, 9} = 0 .. 9"));
+    assertEquals("true", Utils.interpret("{9, 8, 7, 6, 5, 4, 3, 2, 1, 0} = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9}"));
+    assertEquals("false", Utils.interpret("{0, 1, 2, 3, 4, 5, 6, 7, 8, 9} = 0 .. 10"));
+    assertEquals("true", Utils.interpret("70 \\in {0, 10, 20, 30, 40, 50, 60, 70, 80, 90}"));
+    assertEquals("false", Utils.interpret("75 \\in {0, 10, 20, 30, 40, 50, 60, 70, 80, 90}"));
+    assertEquals("true", Utils.interpret("{1, 1, 1, 1, 1, 1, 1, 1, 1, 2} = {2, 1}"));
+  }
+
+  @Test
+  public void testValueFingerprints() {
+    List<Object> digits = List.of(9, 8, 7, 6, 5, 4, 3, 2, 1, 0);
+    TlaSet bits = TlaSet.of(digits);
+    TlaSet interval = new TlaSet.Interval(0, 9);
+    assertEquals(interval, bits);
+    assertEquals(interval.fingerprint(), bits.fingerprint());
+    assertEquals(Values.fingerprint(Set.copyOf(digits)), bits.fingerprint());
+
+    TlaSet small = TlaSet.of(List.of(true, TlaSet.of(List.of(2, 1))));
+    TlaSet reversed = TlaSet.of(List.of(new TlaSet.Interval(1, 2), true));
+    assertEquals(small, reversed);
+    assertEquals(small.fingerprint(), reversed.fingerprint());
+    assertNotEquals(small.fingerprint(), TlaSet.of(List.of(true)).fingerprint());
+
+    TlaFunction indexed = new TlaFunction.Indexed(1, new Object[] {true, false});
+    TlaFunction enumerated = new TlaFunction.Enumerated(Map.of(2, false, 1, true));
+    assertEquals(indexed, enumerated);
+    assertEquals(indexed.fingerprint(), enumerated.fingerprint());
+    assertNotEquals(indexed.fingerprint(),
+        new TlaFunction.Enumerated(Map.of(1, false, 2, true)).fingerprint());
+    assertNotEquals(Values.fingerprint(TlaSet.of(List.of())),
+        Values.fingerprint(new TlaFunction.Enumerated(Map.of())));
+  }
+
   @Test
   public void testEquality() {
     assertEquals("false", Utils.interpret("1 = TRUE"));
@@ -91,4 +199,12 @@ public class TestExpressionEvaluation {
     assertEquals("false", Utils.interpret("1 = {}"));
     assertEquals("false", Utils.interpret("TRUE = {}"));
   }
+
+  @Test
+  public void testErrorsReportTheirOwnLine() {
+    try (IOCapture io = new IOCapture()) {
+      Utils.interpret(io, "IF FALSE THEN 1 + TRUE ELSE\n  1 + TRUE");
+      assertTrue(io.getCapturedOutput().err().contains("[line 2]"));
+    }
+  }
 }
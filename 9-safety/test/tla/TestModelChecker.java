@@ -0,0 +1,407 @@
+package tla;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+public class TestModelChecker {
+
+  private static ModelChecker checker(String input) {
+    try (IOCapture io = new IOCapture()) {
+      Interpreter i = new Interpreter(false);
+      List<Stmt> spec = Utils.parse(io, input);
+      i.interpret(spec);
+      assertEquals("", io.getCapturedOutput().err(), input);
+      return new ModelChecker(i, spec);
+    }
+  }
+
+  private static ModelChecker.StateTrace check(String input) {
+    return checker(input).checkSafety();
+  }
+
+  @Test
+  public void testInvariantHolds() {
+    assertNull(check("""
+        VARIABLE x
+        Init == x = 0
+        Next == x' = IF x < 5 THEN x + 1 ELSE 0
+        Inv == x \\in 0 .. 5
+        """));
+  }
+
+  @Test
+  public void testRevisitedStatesAreRecognized() {
+    assertNull(check("""
+        VARIABLES x, y, z
+        Init == x = 1 /\\ y = 2 /\\ z = {1, 2}
+        Next ==
+          \\/ x' = y /\\ y' = x /\\ z' = z
+          \\/ x' = x /\\ y' = y /\\ z' = {y, x}
+        Inv == z = {1, 2}
+        """));
+  }
+
+  @Test
+  public void testShortestTrace() {
+    ModelChecker.StateTrace trace = check("""
+        VARIABLES x, y
+        Init == x = 0 /\\ y = {}
+        Next ==
+          \\/ x' = x + 1 /\\ y' = y
+          \\/ x' = x /\\ y' = {x}
+        Inv == ~(x = 2 /\\ y = {1})
+        """);
+    assertEquals("Inv", trace.failingInvariant());
+    assertEquals(4, trace.trace().size());
+    assertEquals("Init", trace.trace().get(0).action());
+    assertEquals("{x=0, y=[]}", trace.trace().get(0).state().toString());
+    assertEquals("{x=2, y=[1]}", trace.trace().get(3).state().toString());
+  }
+
+  @Test
+  public void testTraceKeepsDeclarationOrder() {
+    ModelChecker.StateTrace trace = check("""
+        VARIABLES zeta, alpha, mid
+        Init == zeta = 0 /\\ alpha = 1 /\\ mid = 2
+        Next == zeta' = zeta + 1 /\\ alpha' = alpha /\\ mid' = mid
+        Inv == zeta < 1
+        """);
+    assertEquals("{zeta=1, alpha=1, mid=2}",
+        trace.trace().get(1).state().toString());
+  }
+
+  @Test
+  public void testIndependentActions() {
+    ModelChecker.StateTrace trace = check("""
+        VARIABLES a, b, c
+        Init == a = 0 /\\ b = 0 /\\ c = {}
+        IncA == a < 3 /\\ a' = a + 1 /\\ b' = b /\\ c' = c
+        IncB == b < 3 /\\ b' = b + 1 /\\ a' = a /\\ c' = c
+        Mark == c' = {a} /\\ a' = a /\\ b' = b
+        Next == IncA \\/ IncB \\/ Mark
+        Inv == ~(a = 3 /\\ b = 3 /\\ c = {2})
+        """);
+    assertEquals(8, trace.trace().size());
+    assertEquals("{a=3, b=3, c=[2]}",
+        trace.trace().get(7).state().toString());
+
+    // Each action reads one of a and b, so of the 16 states only the first
+    // with a given value of what it reads evaluates it.
+    ModelChecker checker = checker("""
+        VARIABLES a, b
+        Init == a = 0 /\\ b = 0
+        IncA == a < 3 /\\ a' = a + 1 /\\ b' = b
+        IncB == b < 3 /\\ b' = b + 1 /\\ a' = a
+        Next == IncA \\/ IncB
+        Inv == a + b < 7
+        """);
+    assertNull(checker.checkSafety());
+    assertEquals(new ModelChecker.CacheCounts(24, 8),
+        checker.getSuccessorCacheCounts());
+  }
+
+  @Test
+  public void testInvariantsOverFewVariables() {
+    ModelChecker checker = checker("""
+        VARIABLES a, b
+        Init == a = 0 /\\ b = 0
+        Next ==
+          \\/ a < 2 /\\ a' = a + 1 /\\ b' = b
+          \\/ b < 2 /\\ b' = b + 1 /\\ a' = a
+        TypeOK == a \\in 0 .. 2
+        Safety == b < 2
+        """);
+    ModelChecker.StateTrace trace = checker.checkSafety();
+    assertEquals("Safety", trace.failingInvariant());
+    assertEquals(3, trace.trace().size());
+    assertEquals("{a=0, b=2}", trace.trace().get(2).state().toString());
+
+    // Six states are checked before b = 2; each invariant sees each of its
+    // three projections once and then finds the other three cached.
+    assertEquals(new ModelChecker.CacheCounts(6, 6),
+        checker.getInvariantCacheCounts());
+  }
+
+  @Test
+  public void testConjunctReordering() {
+    // Once f[i] = 30 looks cheaper and more selective than Slow(i), moving
+    // it first fails outside the domain of f, and evaluation falls back to
+    // source order.
+    assertNull(check("""
+        VARIABLE x
+        f == [j \\in 0 .. 9 |-> j]
+        Slow(i) == (\\A k \\in 0 .. 100 : k < 1000) /\\ i < 10
+        Init == x = 0
+        Next == x < 3 /\\ x' = x + 1
+        Inv == \\A i \\in 0 .. 500 : ~(Slow(i) /\\ f[i] = 30 /\\ x < 10)
+        """));
+
+    Interpreter interpreter = new Interpreter(false);
+    List<Stmt> spec = Utils.parse("""
+        VARIABLE x
+        f == [j \\in 0 .. 9 |-> j]
+        Slow(i) == (\\A k \\in 0 .. 100 : k < 1000) /\\ i < 10
+        Selective(i) == Slow(i) /\\ i < 0
+        Partial(i) == Slow(i) /\\ f[i] = 30
+        """);
+    interpreter.interpret(spec);
+    interpreter.goToState(Map.of("x", 0));
+
+    // i < 0 is cheap and always false, so it moves ahead of Slow(i).
+    ConjunctProfile selective = profile(interpreter, spec.get(3), 0, 200);
+    assertArrayEquals(new int[] {1, 0}, selective.order());
+    assertFalse(selective.isSourceOrder());
+
+    // f[i] = 30 moves ahead too, then fails outside the domain of f, and
+    // the conjunction goes back to source order for good.
+    ConjunctProfile partial = profile(interpreter, spec.get(4), 0, 200);
+    assertArrayEquals(new int[] {0, 1}, partial.order());
+    assertTrue(partial.isSourceOrder());
+    assertFalse(partial.isReorderable());
+  }
+
+  // Calls the operator on each of lower .. upper, all of which must make it
+  // false, and returns the profile of the conjunction that is its body.
+  private static ConjunctProfile profile(Interpreter interpreter, Stmt stmt,
+                                         int lower, int upper) {
+    TlaOperator op = (TlaOperator)interpreter.globals.get(((Stmt.OpDef)stmt).name);
+    for (int i = lower; i <= upper; i++) {
+      assertEquals(false, op.call(interpreter, List.of(i)));
+    }
+
+    return interpreter.getConjunctProfile((Expr.Variadic)op.declaration.body);
+  }
+
+  @Test
+  public void testQuantifierOverArgument() {
+    // a = i looks like a test, but a stands for x', so each i is a branch.
+    ModelChecker.StateTrace trace = check("""
+        VARIABLE x
+        Pick(a) == \\E i \\in {1, 2} : a = i
+        Init == x = 0
+        Next == Pick(x')
+        Inv == ~(x = 2)
+        """);
+    assertEquals("Inv", trace.failingInvariant());
+    assertEquals("{x=2}", trace.trace().get(1).state().toString());
+  }
+
+  @Test
+  public void testSharedSubexpressionOverArgument() {
+    // a + 1 reads x', so its value from the first disjunct, where x' = 1,
+    // must not be reused in the second, where x' = 2.
+    assertNull(check("""
+        VARIABLE x
+        Op(a) ==
+          \\/ (a = 1 /\\ a + 1 = 2 /\\ FALSE)
+          \\/ (a = 2 /\\ a + 1 = 2)
+        Init == x = 0
+        Next == Op(x')
+        Inv == ~(x = 2)
+        """));
+  }
+
+  @Test
+  public void testFunctionOverArgument() {
+    // v stands for x', which is not yet assigned when f' is, so building
+    // the function fails rather than being put off until x' is known.
+    ModelChecker checker = checker("""
+        VARIABLES x, f
+        Op(v) == [i \\in 1 .. 3 |-> v + i]
+        Init == x = 0 /\\ f = Op(0)
+        Next == f' = Op(x') /\\ x' \\in {1, 2}
+        Inv == f[1] = x + 1
+        """);
+    RuntimeError error = assertThrows(RuntimeError.class, checker::checkSafety);
+    assertEquals("Operands must be numbers.", error.getMessage());
+  }
+
+  @Test
+  public void testTemplateChecksBoundNames() {
+    ModelChecker checker = checker("""
+        VARIABLE x
+        Init == x = 0
+        Next == \\E x \\in {1, 2} : x' = x
+        Inv == TRUE
+        """);
+    RuntimeError error = assertThrows(RuntimeError.class, checker::checkSafety);
+    assertEquals("Name conflicts with state variable.", error.getMessage());
+  }
+
+  @Test
+  public void testHoistedGuardErrors() {
+    // The template checks x + TRUE before x' = 10, which is false first in
+    // source order, so the error sends Next back to the interpreter.
+    assertNull(check("""
+        VARIABLE x
+        Init == x = 0
+        Next ==
+          \\/ x < 3 /\\ x' = x + 1
+          \\/ x' = x + 1 /\\ x' = 10 /\\ x + TRUE
+        Inv == x < 5
+        """));
+  }
+
+  @Test
+  public void testHighFanoutInsideOperator() {
+    // The 2000 branches are explored in parallel, where S must still be
+    // bound.
+    assertNull(check("""
+        VARIABLE x
+        Op(S) == ENABLED (\\E i \\in S : x' = i)
+        Init == x = 0
+        Next == x' = x
+        Inv == Op(1 .. 2000)
+        """));
+  }
+
+  @Test
+  public void testHighFanoutSuccessors() {
+    ModelChecker.StateTrace trace = check("""
+        VARIABLES x, y
+        Init == x = 0 /\\ y = 0
+        Next ==
+          \\E i, j \\in 0 .. 49 :
+            /\\ y < 2
+            /\\ x' = x + i + j
+            /\\ y' = y + 1
+        Inv == x < 196
+        """);
+    assertEquals(3, trace.trace().size());
+    assertEquals("{x=196, y=2}", trace.trace().get(2).state().toString());
+  }
+
+  @Test
+  public void testFrames() {
+    ModelChecker mc = checker("""
+        VARIABLES x, y, z
+        Bump(v) == v' = v + 1
+        Init == x = 0 /\\ y = 0 /\\ z = 0
+        Next ==
+          \\/ x < 3 /\\ Bump(x) /\\ y' = y
+          \\/ ENABLED (z' = x) /\\ x' = x /\\ y' = 0
+        Inv == x < 5
+        """);
+    assertEquals(Set.of("x", "y", "z"), mc.getFrame("Init").writes());
+    assertEquals(Set.of("x", "y"), mc.getFrame("Next").reads());
+    assertEquals(Set.of("x", "y"), mc.getFrame("Next").writes());
+    assertEquals(Set.of("x"), mc.getFrame("Inv").reads());
+    assertEquals(Set.of(), mc.getFrame("Inv").writes());
+    assertEquals(Set.of(), mc.getUnassignedVariables("Init"));
+    assertEquals(Set.of("z"), mc.getUnassignedVariables("Next"));
+    assertNull(mc.checkSafety());
+  }
+
+  @Test
+  public void testFrameOfRebindingQuantifier() {
+    // Rebinding x is an error when evaluated; the frame still sees x'.
+    ModelChecker mc = checker(
+        "VARIABLE x Init == x = 0 Next == \\E x \\in {1, 2} : x' = x Inv == TRUE");
+    assertEquals(Set.of("x"), mc.getFrame("Next").writes());
+  }
+
+  @Test
+  public void testGuardPushdown() {
+    Map<String, Object> state = Map.of("x", 1, "y", 2);
+    assertTemplate(true, "VARIABLES x, y Next == x' = 1 /\\ x' = 1 /\\ y' = 2", state);
+    assertTemplate(true, "VARIABLES x, y Next == x' = 1 /\\ x' = 2 /\\ y' = 2", state);
+    assertTemplate(true, "VARIABLES x, y Next == x' \\in 1 .. 1000 /\\ x' < 5 /\\ y' = y", state);
+    assertTemplate(true, "VARIABLES x, y Next == x' \\in 1 .. 1000 /\\ y < x' /\\ x' < 5 /\\ y' = y", state);
+    assertTemplate(true, "VARIABLES x, y Next == x' \\in 1 .. 1000 /\\ x' = y + 7 /\\ y' = y", state);
+    assertTemplate(true, "VARIABLES x, y Next == x' \\in 1 .. 1000 /\\ x' \\in {0, 3, 5} /\\ y' = y", state);
+    assertTemplate(true, "VARIABLES x, y Next == x' \\in {TRUE, 4, 7} /\\ x' = 7 /\\ y' = y", state);
+    assertTemplate(true, "VARIABLES x, y Next == x' \\in -5 .. 5 /\\ x' < -2147483647 - 1 /\\ y' = y", state);
+
+    // Filters on x' narrow the interval before any element is tried.
+    assertCandidates(Set.of(1, 2, 3, 4), "x' \\in 1 .. 1000 /\\ x' < 5", 1000, 5);
+    assertCandidates(Set.of(3, 4), "x' \\in 1 .. 1000 /\\ y < x' /\\ x' < 5", 1000, 2, 5);
+    assertCandidates(Set.of(9), "x' \\in 1 .. 1000 /\\ x' = y + 7", 1000, 9);
+    assertCandidates(Set.of(), "x' \\in 1 .. 1000 /\\ x' < -2147483647 - 1", 1000, Integer.MIN_VALUE);
+    assertEquals(1000, candidates("x' \\in 1 .. 1000 /\\ x' \\in {0, 3, 5}", 1000, Set.of(0, 3, 5)).size());
+  }
+
+  private static void assertCandidates(Set<Integer> expected, String action,
+                                       int upper, Object... bounds) {
+    assertEquals(expected, new HashSet<>(candidates(action, upper, bounds)), action);
+  }
+
+  // The elements of 1 .. upper that the compiled x' \in 1 .. upper of the
+  // action enumerates when its filters have the given bounds.
+  private static Set<?> candidates(String action, int upper, Object... bounds) {
+    String input = "VARIABLES x, y Next == " + action + " /\\ y' = y";
+    try (IOCapture io = new IOCapture()) {
+      Interpreter i = new Interpreter(false);
+      List<Stmt> spec = Utils.parse(io, input);
+      i.interpret(spec);
+      assertEquals("", io.getCapturedOutput().err(), input);
+      TlaOperator next = (TlaOperator)i.globals.get(
+          new Token(TokenType.IDENTIFIER, "Next", null, 0, 0));
+      SuccessorTemplate.Conjunction template =
+          (SuccessorTemplate.Conjunction)SuccessorTemplate.compile(
+              i, next.declaration.name, next.declaration.body);
+      SuccessorTemplate.Assignment assignment = template.assignments().stream()
+          .filter(a -> a.variable().equals("x")).findFirst().orElseThrow();
+      assertEquals(bounds.length, assignment.filters().size(), input);
+      return assignment.candidates(new TlaSet.Interval(1, upper), bounds);
+    }
+  }
+
+  // Checks that the compiled template for Next, if compiled is expected,
+  // yields exactly the successors the interpreter finds.
+  private static void assertTemplate(boolean compiles, String input,
+                                     Map<String, Object> state) {
+    try (IOCapture io = new IOCapture()) {
+      Interpreter i = new Interpreter(false);
+      List<Stmt> spec = Utils.parse(io, input);
+      i.interpret(spec);
+      assertEquals("", io.getCapturedOutput().err(), input);
+      TlaOperator next = (TlaOperator)i.globals.get(
+          new Token(TokenType.IDENTIFIER, "Next", null, 0, 0));
+      SuccessorTemplate template = SuccessorTemplate.compile(
+          i, next.declaration.name, next.declaration.body);
+      if (!compiles) {
+        assertNull(template, input);
+        return;
+      }
+
+      assertNotNull(template, input);
+      i.goToState(state);
+      assertEquals(
+          new HashSet<>(i.getNextStates(next.declaration.name, next.declaration.body)),
+          new HashSet<>(SuccessorTemplate.successors(template, i)),
+          input);
+    }
+  }
+
+  @Test
+  public void testSuccessorTemplates() {
+    Map<String, Object> state = Map.of("x", 1, "y", 2);
+    assertTemplate(true, "VARIABLES x, y Next == x' = y /\\ y' = x", state);
+    assertTemplate(true, "VARIABLES x, y Next == x' \\in 0 .. y /\\ y' = x /\\ x < y", state);
+    assertTemplate(true, "VARIABLES x, y Next == y < x /\\ x' = y /\\ y' = x", state);
+    assertTemplate(true, "VARIABLES x, y Next == x' = 0", state);
+    assertTemplate(true, """
+        VARIABLES x, y
+        Set(v) == x' = v /\\ y' = y
+        Next ==
+          \\/ \\E v \\in 1 .. 3 : Set(v)
+          \\/ \\E a, b \\in {0, 1} : x' = a /\\ y' \\in {b, x}
+        """, state);
+    assertTemplate(false, "VARIABLES x, y Next == x' = 1 /\\ y' = x'", state);
+    assertTemplate(false, "VARIABLES x, y Next == (x' = 1 \\/ x' = 2) /\\ x' < 2 /\\ y' = 0", state);
+    assertTemplate(false, "VARIABLES x, y Next == IF x < y THEN x' = y ELSE y' = x", state);
+    assertTemplate(false, "VARIABLES x, y Step(v) == v' = v + 1 Next == Step(x) /\\ y' = y", state);
+  }
+}
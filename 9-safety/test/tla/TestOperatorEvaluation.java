@@ -1,12 +1,28 @@
 package tla;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.jupiter.api.Test;
 
 public class TestOperatorEvaluation {
 
+  private static TlaOperator define(String input) {
+    try (IOCapture io = new IOCapture()) {
+      Interpreter i = new Interpreter(false);
+      List<Stmt> spec = Utils.parse(io, input);
+      i.interpret(spec);
+      assertEquals("", io.getCapturedOutput().err(), input);
+      Stmt.OpDef last = (Stmt.OpDef)spec.get(spec.size() - 1);
+      return (TlaOperator)i.globals.get(last.name);
+    }
+  }
+
   @Test
   public void testOperatorDefinitions() {
     assertEquals("3", Utils.interpret("f(x) == x + 1 f(2)"));
@@ -14,6 +30,13 @@ public class TestOperatorEvaluation {
     assertEquals("true", Utils.interpret("f(x, y) == x < y f(2, 3)"));
   }
 
+  @Test
+  public void testArgumentsEvaluatedOnUse() {
+    assertEquals("1", Utils.interpret("f(a, b) == IF a THEN 1 ELSE b f(TRUE, 1 + TRUE)"));
+    assertTrue(Utils.hasInterpreterError("f(a, b) == IF a THEN 1 ELSE b f(FALSE, 1 + TRUE)"));
+    assertEquals("4", Utils.interpret("f(a) == a + a g(b) == f(b + 1) g(1)"));
+  }
+
   @Test
   public void testOperatorErrors() {
     assertTrue(Utils.hasInterpreterError("op(op) == 3"), "Operator name as own parameter");
@@ -35,6 +58,18 @@ public class TestOperatorEvaluation {
     assertEquals("true", Utils.interpret("S == 0 .. 2 \\E x \\in S : \\A y \\in S : x = y \\/ x < y"));
   }
 
+  @Test
+  public void testLargeQuantification() {
+    assertEquals("true", Utils.interpret("\\A x, y \\in 0 .. 499 : (x + y) < 999"));
+    assertEquals("false", Utils.interpret("\\A x, y \\in 0 .. 499 : (x + y) < 998"));
+    assertEquals("true", Utils.interpret("\\E x, y \\in 0 .. 499 : (x + y) = 998"));
+    assertEquals("false", Utils.interpret("\\E x, y \\in 0 .. 499 : (x + y) = 999"));
+    // The earliest binding to settle the quantifier or fail decides it.
+    assertEquals("false", Utils.interpret("\\A x, y \\in 0 .. 499 : IF y = 450 THEN 1 ELSE y < 400"));
+    assertTrue(Utils.hasInterpreterError("\\A x, y \\in 0 .. 499 : IF y = 400 THEN 1 ELSE y < 450"));
+    assertEquals("true", Utils.interpret("\\E x, y \\in 0 .. 499 : IF y = 450 THEN 1 ELSE y = 400"));
+  }
+
   @Test
   public void testFunctions() {
     assertEquals("{0=1, 1=2, 2=3}", Utils.interpret("[x \\in 0 .. 2 |-> x + 1]"));
@@ -44,6 +79,26 @@ public class TestOperatorEvaluation {
     assertEquals("false", Utils.interpret("f == [x \\in 0 .. 2 |-> [y \\in {TRUE, FALSE} |-> ~y]] f[2][TRUE]"));
   }
 
+  @Test
+  public void testLazyFunctions() {
+    assertEquals("6", Utils.interpret("[x \\in 1 .. 2000000000 |-> x + 1][5]"));
+    assertEquals("1", Utils.interpret("f == [x \\in 0 .. 2 |-> [y \\in {1} |-> y][x]] f[1]"));
+    assertTrue(Utils.hasInterpreterError("f == [x \\in 0 .. 2 |-> [y \\in {1} |-> y][x]] f"));
+    assertEquals("true", Utils.interpret("[x \\in 0 .. 2 |-> x + 1] = [y \\in {2, 1, 0} |-> 1 + y]"));
+    assertEquals("false", Utils.interpret("[x \\in 0 .. 2 |-> x + 1] = [y \\in 0 .. 2 |-> y]"));
+    assertEquals("true", Utils.interpret("{[x \\in 0 .. 1 |-> x]} = {[y \\in {0, 1} |-> IF y = 0 THEN 0 ELSE 1]}"));
+  }
+
+  @Test
+  public void testIntervalFunctions() {
+    assertEquals("-1", Utils.interpret("[x \\in -1 .. 1 |-> x][-1]"));
+    assertEquals("true", Utils.interpret("[x \\in -1 .. 1 |-> x] = [x \\in {-1, 0, 1} |-> x]"));
+    assertEquals("true", Utils.interpret("[x \\in 1 .. 0 |-> x] = [x \\in {} |-> x]"));
+    assertEquals("false", Utils.interpret("[x \\in 1 .. 2 |-> x] = [x \\in 0 .. 1 |-> x + 1]"));
+    assertTrue(Utils.hasInterpreterError("[x \\in 1 .. 3 |-> x][4]"));
+    assertTrue(Utils.hasInterpreterError("[x \\in 1 .. 3 |-> x][TRUE]"));
+  }
+
   @Test
   public void testFunctionErrors() {
     assertTrue(Utils.hasInterpreterError("op == 3 \\A op \\in {} : TRUE"), "Operator name as universally-quantified variable");
@@ -86,4 +141,119 @@ public class TestOperatorEvaluation {
   public void testFunctionOperator() {
     assertEquals("4", Utils.interpret("f(n) == n + 1 op(n) == [x \\in 0 .. n |-> f(x)] op(3)[3]"));
   }
+
+  @Test
+  public void testConstantCallsAreFolded() {
+    TlaOperator op = define("Cap(n) == n + 1 Range(a, b) == a .. b op == Cap(2) \\in Range(1, 5)");
+    assertInstanceOf(Expr.Binary.class, op.declaration.body);
+    Expr.Binary body = (Expr.Binary)op.declaration.body;
+    assertEquals("3", ((Expr.Literal)body.left).value.toString());
+    assertEquals("[1, 2, 3, 4, 5]", ((Expr.Literal)body.right).value.toString());
+    assertTrue(op.isConstant());
+
+    op = define("N == 3 op == [x \\in 0 .. N |-> x + 1]");
+    Expr.Binary set = (Expr.Binary)((Expr.QuantFn)op.declaration.body).set;
+    assertInstanceOf(Expr.Literal.class, set.right);
+  }
+
+  @Test
+  public void testNonConstantCallsAreNotFolded() {
+    TlaOperator op = define("VARIABLE x f(n) == x + n op == f(2)");
+    assertInstanceOf(Expr.Variable.class, op.declaration.body);
+    assertFalse(op.isConstant());
+
+    op = define("f(n) == n' op == f(2)");
+    assertInstanceOf(Expr.Variable.class, op.declaration.body);
+
+    op = define("f(n) == IF n < 1 THEN 0 ELSE f(n - 1) op == f(2)");
+    assertInstanceOf(Expr.Variable.class, op.declaration.body);
+
+    op = define("f(n) == [y \\in {1} |-> y][n] op == IF FALSE THEN f(2) ELSE 0");
+    assertInstanceOf(Expr.Variable.class, ((Expr.Ternary)op.declaration.body).second);
+
+    // Names not yet defined could be variables or mutually recursive.
+    op = define("A == x VARIABLE x op == A");
+    assertInstanceOf(Expr.Variable.class, op.declaration.body);
+    assertFalse(op.isConstant());
+
+    op = define("Up(n) == IF n = 0 THEN 0 ELSE Down(n + 1) Down(n) == Up(n + 1) op == Up(1)");
+    assertInstanceOf(Expr.Variable.class, op.declaration.body);
+
+    // Folding gives up on calls that take too long.
+    op = define("Big == \\A n \\in 0 .. 10000000 : n < 10000001 op == Big");
+    assertInstanceOf(Expr.Variable.class, op.declaration.body);
+  }
+
+  @Test
+  public void testRecursiveOperatorsAreMemoized() {
+    Interpreter interpreter = new Interpreter(false);
+    List<Stmt> spec = Utils.parse("Fib(n) == IF n < 2 THEN n ELSE Fib(n - 1) + Fib(n - 2)");
+    interpreter.interpret(spec);
+    TlaOperator fib = (TlaOperator)interpreter.globals.get(((Stmt.OpDef)spec.get(0)).name);
+    assertTrue(fib.isMemoized());
+    assertEquals(1134903170, fib.call(interpreter, List.of(45)));
+    assertEquals(46, fib.memoMisses());
+    assertEquals(43, fib.memoHits());
+
+    assertFalse(define("VARIABLE x F(n) == IF n < 1 THEN x ELSE F(n - 1)").isMemoized());
+  }
+
+  @Test
+  public void testMemoizationStopsWithoutHits() {
+    Interpreter interpreter = new Interpreter(false);
+    List<Stmt> spec = Utils.parse("Sum(n, acc) == IF n = 0 THEN acc ELSE Sum(n - 1, acc + n)");
+    interpreter.interpret(spec);
+    TlaOperator sum = (TlaOperator)interpreter.globals.get(((Stmt.OpDef)spec.get(0)).name);
+    assertTrue(sum.isMemoizing());
+    assertEquals(2001000, sum.call(interpreter, List.of(2000, 0)));
+    assertFalse(sum.isMemoizing());
+    assertEquals(1024, sum.memoMisses());
+  }
+
+  @Test
+  public void testMemoizedArgumentsStayByNeed() {
+    // a is never used, so 1 + TRUE is never evaluated.
+    Interpreter interpreter = new Interpreter(false);
+    List<Stmt> spec = Utils.parse("F(n, a) == IF n = 0 THEN 0 ELSE F(n - 1, 1 + TRUE)");
+    interpreter.interpret(spec);
+    TlaOperator f = (TlaOperator)interpreter.globals.get(((Stmt.OpDef)spec.get(0)).name);
+    assertTrue(f.isMemoized());
+    assertEquals(0, f.call(interpreter, List.of(3, 0)));
+  }
+
+  @Test
+  public void testDeepRecursion() {
+    assertEquals("100000", Utils.interpret("Count(n) == IF n = 0 THEN 0 ELSE 1 + Count(n - 1) Count(100000)"));
+    assertTrue(Utils.hasInterpreterError("Count(n) == IF n = 0 THEN TRUE + 1 ELSE 1 + Count(n - 1) Count(100000)"));
+    try (IOCapture io = new IOCapture()) {
+      Utils.interpret(io, "Loop(n) == 1 + Loop(n + 1) Loop(0)");
+      assertTrue(io.getCapturedOutput().err().contains("Recursion too deep."));
+    }
+  }
+
+  @Test
+  public void testContextsShareSpec() throws InterruptedException {
+    Interpreter interpreter = new Interpreter(false);
+    List<Stmt> spec = Utils.parse("S == 0 .. 99 Double(n) == \\E m \\in S : m + m = n");
+    interpreter.interpret(spec);
+    TlaOperator op = (TlaOperator)interpreter.globals.get(((Stmt.OpDef)spec.get(1)).name);
+
+    Object[] results = new Object[200];
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      int first = t;
+      threads.add(new Thread(() -> {
+        Interpreter context = new Interpreter(interpreter.spec);
+        for (int n = first; n < results.length; n += 4) {
+          results[n] = op.call(context, List.of(n));
+        }
+      }));
+    }
+
+    for (Thread thread : threads) thread.start();
+    for (Thread thread : threads) thread.join();
+    for (int n = 0; n < results.length; n++) {
+      assertEquals(n % 2 == 0, results[n], "Double(" + n + ")");
+    }
+  }
 }
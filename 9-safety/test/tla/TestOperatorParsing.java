@@ -1,6 +1,11 @@
 package tla;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.List;
+
 import org.junit.jupiter.api.Test;
 
 public class TestOperatorParsing {
@@ -31,4 +36,25 @@ public class TestOperatorParsing {
     checkEqual("[x \\in S |-> f(x)][1]", "(print ((|-> x (S) (f (x))) 1))");
     checkEqual("[x \\in S |-> [y \\in S |-> f(x, y)]][1][2]", "(print (((|-> x (S) (|-> y (S) (f (x) (y)))) 1) 2))");
   }
+
+  @Test
+  public void testSubexpressionsAreInterned() {
+    List<Stmt> spec = Utils.parse("""
+        A == x' = x + 1
+        B ==
+          \\/ x' = x + 1
+          \\/ y' = (x + 1) + y
+        """);
+    Expr.Binary a = (Expr.Binary)((Stmt.OpDef)spec.get(0)).body;
+    Expr.Variadic b = (Expr.Variadic)((Stmt.OpDef)spec.get(1)).body;
+    assertSame(a, b.parameters.get(0).canonical);
+    Expr.Binary y = (Expr.Binary)b.parameters.get(1);
+    Expr.Grouping sum = (Expr.Grouping)((Expr.Binary)y.right).left;
+    assertSame(a.right, sum.expression.canonical);
+    assertNotEquals(a, y);
+
+    // Each occurrence keeps its own tokens, for reporting errors.
+    assertEquals(1, a.operator.line);
+    assertEquals(3, ((Expr.Binary)b.parameters.get(0)).operator.line);
+  }
 }
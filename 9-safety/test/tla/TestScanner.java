@@ -2,9 +2,14 @@ package tla;
 
 import static tla.TokenType.*;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import org.junit.jupiter.api.Test;
 
 public class TestScanner {
@@ -78,4 +83,55 @@ public class TestScanner {
       IDENTIFIER, IDENTIFIER, EOF
     );
   }
+
+  @Test
+  public void testLexemesAcrossReads() {
+    String longName = "x".repeat(20000);
+    String input = "op == 12345 \\* comment\n" + longName + " /\\ TRUE";
+    // Hands over a single character at a time.
+    Reader trickle = new StringReader(input) {
+      @Override
+      public int read(char[] buffer, int offset, int length)
+          throws IOException {
+        return super.read(buffer, offset, Math.min(length, 1));
+      }
+    };
+
+    Scanner scanner = new Scanner(trickle);
+    List<Token> expected = Utils.scan(input);
+    for (Token token : expected) {
+      Token actual = scanner.nextToken();
+      assertEquals(token, actual);
+      assertEquals(token.line, actual.line);
+      assertEquals(token.column, actual.column);
+    }
+
+    assertEquals(longName, expected.get(3).lexeme);
+    assertEquals(12345, expected.get(2).literal);
+    assertEquals(EOF, scanner.nextToken().type);
+  }
+
+  @Test
+  public void testNumberLiterals() {
+    assertEquals(2147483647, Utils.scan("2147483647").get(0).literal);
+    assertEquals(EOF, Utils.scan("2147483648").get(0).type);
+    assertEquals(String.valueOf(3000),
+        Utils.interpret("1" + " + 1".repeat(2999)));
+  }
+
+  @Test
+  public void testIdentifierSymbols() {
+    StringBuilder input = new StringBuilder();
+    for (int i = 0; i < 2000; i++) input.append(" name").append(i);
+    List<Token> first = Utils.scan(input.toString());
+    List<Token> second = Utils.scan(input.toString());
+    for (int i = 0; i < 2000; i++) {
+      assertEquals(first.get(i).symbol, second.get(i).symbol);
+      assertSame(first.get(i).lexeme, second.get(i).lexeme);
+      assertEquals("name" + i, SymbolTable.name(first.get(i).symbol));
+    }
+
+    assertNotEquals(first.get(0).symbol, first.get(1).symbol);
+    assertEquals(SymbolTable.NO_SYMBOL, Utils.scan("IF").get(0).symbol);
+  }
 }
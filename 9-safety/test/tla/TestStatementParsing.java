@@ -15,4 +15,10 @@ public class TestStatementParsing {
     checkEqual("op == 123 op2 == TRUE", "(op 123) (op2 true)");
     checkEqual("op == 123 3 + 5", "(op 123) (print (+ 3 5))");
   }
+
+  @Test
+  public void testLongNames() {
+    String name = "op".repeat(1000);
+    checkEqual(name + " == 1 " + name, "(" + name + " 1) (print (" + name + "))");
+  }
 }
@@ -17,7 +17,7 @@ class Utils {
   }
 
   static List<Stmt> parse(IOCapture io, String input) {
-    Parser p = new Parser(scan(io, input), true);
+    Parser p = new Parser(new Scanner(input), true);
     return p.parse();
   }
 